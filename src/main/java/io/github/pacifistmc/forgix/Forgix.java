@@ -1,15 +1,26 @@
 package io.github.pacifistmc.forgix;
 
+import io.github.pacifistmc.forgix.core.ConflictPolicies;
+import io.github.pacifistmc.forgix.core.ForgixExecutor;
+import io.github.pacifistmc.forgix.core.ForgixSession;
 import io.github.pacifistmc.forgix.core.Multiversion;
+import io.github.pacifistmc.forgix.core.RelocationCache;
 import io.github.pacifistmc.forgix.core.RelocationConfig;
+import io.github.pacifistmc.forgix.core.RelocationOptions;
+import io.github.pacifistmc.forgix.core.resources.ResourceTransformers;
 import io.github.pacifistmc.forgix.core.Relocator;
+import io.github.pacifistmc.forgix.core.StableNames;
+import io.github.pacifistmc.forgix.utils.InMemoryJar;
 import io.github.pacifistmc.forgix.utils.JAR;
+import io.github.pacifistmc.forgix.utils.JarFilePool;
+import io.github.pacifistmc.forgix.utils.NestedJars;
+import io.github.pacifistmc.forgix.utils.TinyClassWriter;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.function.Function;
-import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
 public class Forgix {
@@ -17,7 +28,15 @@ public class Forgix {
     private static final String MANIFEST_VERSION_KEY = "Forgix-Version";
     private static final String MANIFEST_MAPPINGS_KEY = "Forgix-Mappings";
 
-    public static void mergeLoaders(Map<File, String> jarsAndLoadersMap, File outputFile, boolean silence = false) {
+    /**
+     * Merges the JARs of multiple loaders into a single JAR.
+     * @param jarsAndLoadersMap The JARs and their loaders
+     * @param outputFile The merged JAR
+     * @param silence Whether to not print anything
+     * @param cache Where to reuse relocated JARs from if these exact JARs were merged before, null to always relocate
+     * @param options How conflicts are found, null for the defaults
+     */
+    public static void mergeLoaders(Map<File, String> jarsAndLoadersMap, File outputFile, boolean silence = false, RelocationCache cache = null, RelocationOptions options = null) {
         if (!silence) {
             """
             Thank you for using Forgix!
@@ -25,32 +44,86 @@ public class Forgix {
             Please report any issues to https://github.com/PacifistMC/Forgix/issues""".println();
         }
 
-        List<RelocationConfig> configs = new ArrayList<>();
-        jarsAndLoadersMap.forEach((jar, loader) -> configs.add(new RelocationConfig(new JarFile(jar), loader)));
-        Relocator.relocate(configs);
-
-        Map<File, String> tinyFiles = configs.stream()
-                .map(RelocationConfig::getTinyFile)
-                .collect(Collectors.toMap(
-                        Function.identity(),
-                        file -> "META-INF/forgix/${file.getName()}"
-                ));
-
-        try (var baos = JAR.combineJars(jarsAndLoadersMap.keySet(),
-                extraManifestAttributes:Map.of(
-                    MANIFEST_VERSION_KEY, VERSION,
-                    MANIFEST_MAPPINGS_KEY, String.join(";", tinyFiles.values())
-                ));
-             var fos = new FileOutputStream(outputFile)
-        ) {
-            baos.writeTo(fos);
+        long start = System.nanoTime();
+        // Everything this merge uses is released when the session is closed, so merges in the same JVM don't interfere with each other
+        try (var session = new ForgixSession(options == null ? JarFilePool.DEFAULT_MAX_OPEN : options.maxOpenJars)) {
+            // The input JARs are only read, everything is relocated in memory and goes straight into the merged JAR
+            List<RelocationConfig> configs = new ArrayList<>();
+            String cacheKey = cache == null ? null : RelocationCache.computeKey(jarsAndLoadersMap, options);
+            var cached = cacheKey == null ? null : cache.get(cacheKey, new HashSet<>(jarsAndLoadersMap.values()));
+            if (cached != null) {
+                // These exact JARs were merged before, so the relocated JARs can be used as they are
+                jarsAndLoadersMap.forEach((_, loader) -> {
+                    var config = new RelocationConfig(session.track(new InMemoryJar(cached.get(loader).jar(), session.jarFilePool)), loader);
+                    config.setTinyFile(cached.get(loader).tinyFile());
+                    configs.add(config);
+                });
+                if (!silence) "Reusing cached relocation, the input jars haven't changed".println();
+            } else {
+                jarsAndLoadersMap.forEach((jar, loader) -> configs.add(new RelocationConfig(session.track(new InMemoryJar(jar, session.jarFilePool)), loader)));
+
+                int passes = Relocator.relocate(configs, inMemory: true, options: options);
+                if (!silence && passes > 1) "Resolved ${passes} levels of class conflicts in a single remap pass".println();
+                int skipped = configs.stream().mapToInt(RelocationConfig::getSkippedClasses).sum();
+                int total = skipped + configs.stream().mapToInt(RelocationConfig::getRemappedClasses).sum();
+                if (!silence && skipped > 0) "Skipped remapping ${skipped} of ${total} classes (${skipped * 100 / total}%), they don't refer to anything relocated".println();
+                TinyClassWriter.write(configs, session.getTempDir("tiny")); // The mappings are only written once they're final
+                if (cacheKey != null) cache.put(cacheKey, configs);
+            }
+
+            Map<File, String> tinyFiles = configs.stream()
+                    .map(RelocationConfig::getTinyFile)
+                    .collect(Collectors.toMap(
+                            Function.identity(),
+                            file -> "META-INF/forgix/${file.getName()}"
+                    ));
+
+            // Libraries every loader nests under a different path only need to be in the merged JAR once
+            int deduped = NestedJars.dedupe(configs.stream().map(RelocationConfig::getJar).toList());
+            if (!silence && deduped > 0) "Removed ${deduped} nested jars that were already nested by another loader".println();
+
+            try (var baos = JAR.combineInMemoryJars(configs.stream().map(RelocationConfig::getJar).toList(),
+                    extraManifestAttributes:Map.of(
+                        MANIFEST_VERSION_KEY, VERSION,
+                        MANIFEST_MAPPINGS_KEY, String.join(";", tinyFiles.values())
+                    ));
+                 var fos = new FileOutputStream(outputFile)
+            ) {
+                baos.writeTo(fos);
+            }
+            JAR.addFiles(outputFile, tinyFiles);
+
+            if (options != null && !options.previousMappings.isEmpty()) {
+                // Written even if nothing changed, so there's always something to check
+                var changes = StableNames.diff(options.previousMappings, configs);
+                var diffFile = getMappingsDiffFile(outputFile);
+                Files.write(diffFile.toPath(), changes);
+                if (!silence) (changes.isEmpty() ? "Relocated names are the same as in the previous release" : "${changes.size()} relocated names changed since the previous release, see ${diffFile.getName()}").println();
+            }
         }
-        JAR.addFiles(outputFile, tinyFiles);
         JAR.setPerms(outputFile);
+
+        // So profiles can be compared on real projects
+        if (!silence) {
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            var profile = options == null ? RelocationOptions.Profile.RELEASE : options.profile;
+            "Merged in ${millis} ms with the ${profile} profile".println();
+        }
+    }
+
+    /**
+     * Gets where {@link #mergeLoaders} writes what changed since the previous release, see {@link StableNames#diff}.
+     * @param outputFile The merged JAR
+     * @return The diff file, it's next to the merged JAR and only written if there's a previous release
+     */
+    public static File getMappingsDiffFile(File outputFile) {
+        return new File(outputFile.getAbsoluteFile().getParentFile(), outputFile.getName().setBaseNameExtension("mappings.diff"));
     }
 
     public static void mergeVersions(Collection<File> jarFiles, File outputFile) {
-        try (var baos = Multiversion.mergeVersions(jarFiles); var fos = new FileOutputStream(outputFile)) {
+        try (var session = new ForgixSession();
+             var baos = Multiversion.mergeVersions(jarFiles, session);
+             var fos = new FileOutputStream(outputFile)) {
             baos.writeTo(fos);
         }
         JAR.setPerms(outputFile);
@@ -60,8 +133,8 @@ public class Forgix {
         if (args.length < 2) {
             """
             Usage:
-            java -jar forgix.jar mergeJars --output <outputJar> --<loader1> <jar1> --<loader2> <jar2> [--<loader3> <jar3> ...]
-            java -jar forgix.jar mergeVersions --output <outputJar> <jar1> <jar2> [<jar3> ...]
+            java -jar forgix.jar mergeJars --output <outputJar> [--cache <cacheDirectory>] [--cache-size <megabytes>] [--executor <common|platform|virtual>] [--threads <count>] [--normalize-bytecode <true|false>] [--share-majority <true|false>] [--max-open-jars <count>] [--profile <dev-fast|release|paranoid>] [--remap-engine <tiny-remapper|asm>] [--resource-transformer <className> ...] [--classpath <loader>=<jars> ...] [--conflict-policy <glob>=<policy> ...] [--previous-release <mergedJar>] --<loader1> <jar1> --<loader2> <jar2> [--<loader3> <jar3> ...]
+            java -jar forgix.jar mergeVersions --output <outputJar> [--executor <common|platform|virtual>] [--threads <count>] <jar1> <jar2> [<jar3> ...]
 
             Example:
             java -jar forgix.jar mergeJars --output path/to/merged.jar --forge myforgemod.jar --fabric myfabricmod.jar
@@ -73,11 +146,17 @@ public class Forgix {
         // Handle mergeJars command
         if ("mergeJars".equals(command)) {
             if (args.length < 5 || args.length % 2 != 1) {
-                "Usage: java -jar forgix.jar mergeJars --output <outputJar> --<loader1> <jar1> --<loader2> <jar2> [--<loader3> <jar3> ...]".errExit();
+                "Usage: java -jar forgix.jar mergeJars --output <outputJar> [--cache <cacheDirectory>] [--cache-size <megabytes>] [--executor <common|platform|virtual>] [--threads <count>] [--normalize-bytecode <true|false>] [--share-majority <true|false>] [--max-open-jars <count>] [--profile <dev-fast|release|paranoid>] [--remap-engine <tiny-remapper|asm>] [--resource-transformer <className> ...] [--classpath <loader>=<jars> ...] [--conflict-policy <glob>=<policy> ...] [--previous-release <mergedJar>] --<loader1> <jar1> --<loader2> <jar2> [--<loader3> <jar3> ...]".errExit();
             }
 
             Map<File, String> jarsAndLoadersMap = new HashMap<>();
             File outputFile = null;
+            File cacheDirectory = null;
+            long cacheMaxSize = RelocationCache.DEFAULT_MAX_SIZE;
+            String executorType = "platform";
+            int threads = ForgixExecutor.defaultParallelism();
+            var options = new RelocationOptions();
+            options.setProfile(RelocationOptions.Profile.fromEnvironment()); // --profile wins over FORGIX_PROFILE
 
             for (int i = 1; i < args.length; i += 2) {
                 if (!args[i].startsWith("--")) "Parameter must start with --".errExit();
@@ -89,6 +168,66 @@ public class Forgix {
                     outputFile = new File(value);
                     continue;
                 }
+                if ("cache".equals(param)) {
+                    cacheDirectory = new File(value);
+                    continue;
+                }
+                if ("cache-size".equals(param)) {
+                    cacheMaxSize = Long.parseLong(value) * 1024 * 1024;
+                    continue;
+                }
+                if ("executor".equals(param)) {
+                    executorType = value;
+                    continue;
+                }
+                if ("threads".equals(param)) {
+                    threads = Integer.parseInt(value);
+                    continue;
+                }
+                if ("normalize-bytecode".equals(param)) {
+                    options.setNormalizeBytecode(Boolean.parseBoolean(value));
+                    continue;
+                }
+                if ("share-majority".equals(param)) {
+                    options.setShareMajority(Boolean.parseBoolean(value));
+                    continue;
+                }
+                if ("max-open-jars".equals(param)) {
+                    options.setMaxOpenJars(Integer.parseInt(value));
+                    continue;
+                }
+                if ("profile".equals(param)) {
+                    options.setProfile(RelocationOptions.Profile.of(value));
+                    continue;
+                }
+                if ("remap-engine".equals(param)) {
+                    options.setRemapEngine(RelocationOptions.RemapEngine.of(value));
+                    continue;
+                }
+                if ("resource-transformer".equals(param)) {
+                    options.resourceTransformers.add(ResourceTransformers.load(value, Forgix.class.getClassLoader()));
+                    continue;
+                }
+                if ("classpath".equals(param)) { // e.g. fabric=minecraft.jar:fabric-loader.jar
+                    var loaderAndJars = value.split("=", 2);
+                    if (loaderAndJars.length != 2) "Classpath must look like <loader>=<jars>".errExit();
+                    var jars = Arrays.stream(loaderAndJars[1].split(File.pathSeparator)).filter(jar -> !jar.isBlank()).map(File::new).toList();
+                    options.classpath.computeIfAbsent(loaderAndJars[0], _ -> new ArrayList<>()).addAll(jars);
+                    continue;
+                }
+                if ("conflict-policy".equals(param)) { // e.g. assets/**=keep-first
+                    var globAndPolicy = value.split("=", 2);
+                    if (globAndPolicy.length != 2) "Conflict policy must look like <glob>=<policy>".errExit();
+                    ConflictPolicies.Policy.of(globAndPolicy[1]); // Fail right away if it's not a policy
+                    options.conflictPolicies.put(globAndPolicy[0], globAndPolicy[1]);
+                    continue;
+                }
+                if ("previous-release".equals(param)) {
+                    var previousRelease = new File(value);
+                    if (!previousRelease.isFile()) "Previous release not found: ${value}".errExit();
+                    options.setPreviousMappings(StableNames.read(previousRelease));
+                    continue;
+                }
 
                 var jarFile = new File(value);
                 if (!jarFile.exists() || !jarFile.isFile()) "Jar file not found: ${value}".errExit();
@@ -98,8 +237,9 @@ public class Forgix {
             if (outputFile == null) "Output jar file must be specified with --output".errExit();
             if (jarsAndLoadersMap.size() < 2) "At least two jars must be provided".errExit();
 
-            try {
-                mergeLoaders(jarsAndLoadersMap, outputFile);
+            try (var executor = ForgixExecutor.create(executorType, threads)) {
+                var cache = cacheDirectory == null ? null : new RelocationCache(cacheDirectory, cacheMaxSize);
+                executor.run(() -> mergeLoaders(jarsAndLoadersMap, outputFile, cache: cache, options: options));
                 "Successfully merged jars into ${outputFile.getAbsolutePath()}".println();
             } catch (Exception e) {
                 "Error merging jars: ${e.getMessage()}".errExit();
@@ -110,15 +250,25 @@ public class Forgix {
         // Handle mergeVersions command
         if ("mergeVersions".equals(command)) {
             if (args.length < 4) {
-                "Usage: java -jar forgix.jar mergeVersions --output <outputJar> <jar1> <jar2> [<jar3> ...]".errExit();
+                "Usage: java -jar forgix.jar mergeVersions --output <outputJar> [--executor <common|platform|virtual>] [--threads <count>] <jar1> <jar2> [<jar3> ...]".errExit();
             }
 
             if (!"--output".equals(args[1])) "Output jar file must be specified with --output".errExit();
 
             File outputFile = new File(args[2]);
             List<File> jarFiles = new ArrayList<>();
+            String executorType = "platform";
+            int threads = ForgixExecutor.defaultParallelism();
 
             for (int i = 3; i < args.length; i++) {
+                if ("--executor".equals(args[i]) && i + 1 < args.length) {
+                    executorType = args[++i];
+                    continue;
+                }
+                if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                    continue;
+                }
                 var jarFile = new File(args[i]);
                 if (!jarFile.exists() || !jarFile.isFile()) "Jar file not found: ${args[i]}".errExit();
                 jarFiles.add(jarFile);
@@ -126,8 +276,8 @@ public class Forgix {
 
             if (jarFiles.size() < 2) "At least two jars must be provided".errExit();
 
-            try {
-                mergeVersions(jarFiles, outputFile);
+            try (var executor = ForgixExecutor.create(executorType, threads)) {
+                executor.run(() -> mergeVersions(jarFiles, outputFile));
                 "Successfully merged version jars into ${outputFile.getAbsolutePath()}".println();
             } catch (Exception e) {
                 "Error merging version jars: ${e.getMessage()}".errExit();
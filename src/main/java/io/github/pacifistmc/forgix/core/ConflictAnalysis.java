@@ -0,0 +1,204 @@
+package io.github.pacifistmc.forgix.core;
+
+import io.github.pacifistmc.forgix.utils.ClassReferences;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Works out every class that has to be relocated before anything gets remapped. <br>
+ * Relocating a class changes the bytes of every class that refers to it, so those start conflicting as well, and so on.
+ * Instead of remapping the jars and checking again until nothing changes we build the reference graph once and walk it.
+ */
+public class ConflictAnalysis {
+    private ConflictAnalysis() { }
+
+    /**
+     * Adds mappings for every class that would only start conflicting once the existing class mappings are applied.
+     * Example:
+     * ```
+     * class A {
+     *     public static Object get() {
+     *         return Minecraft.getInstance();
+     *     }
+     * }
+     * class B {
+     *     public static void use() {
+     *         System.out.println(A.get());
+     *     }
+     * }
+     * ```
+     * A gets remapped to `A_fabric` and `A_forge`, so B is identical before remapping but not after.
+     * @param relocationConfigs The relocationConfigs to process, their mappings must already contain the direct conflicts
+     * @return How many remap passes it would've taken to find all of them by remapping and checking again
+     */
+    public static int closeOverReferences(List<RelocationConfig> relocationConfigs) {
+        // The classes each jar relocates, these are where the walk starts
+        Map<RelocationConfig, Set<String>> relocatedClasses = new HashMap<>();
+        relocationConfigs.forEach(config -> {
+            Set<String> relocated = config.mappings.keySet().stream()
+                    .filter(path -> path.endsWith(".class"))
+                    .map(path -> path.removeExtension())
+                    .collect(Collectors.toSet());
+            if (!relocated.isEmpty()) relocatedClasses.put(config, relocated);
+        });
+        if (relocatedClasses.isEmpty()) return 0; // No class conflicts at all
+
+        // Classes that are still shared between at least two jars, only these can start conflicting
+        Map<String, Integer> owners = new HashMap<>();
+        Map<RelocationConfig, Set<String>> sharedClasses = new HashMap<>();
+        relocationConfigs.forEach(config -> {
+            Set<String> classes = config.jar.getClasses();
+            classes.removeIf(path -> config.mappings.containsKey(path));
+            classes.forEach(path -> owners.merge(path, 1, Integer::sum));
+            sharedClasses.put(config, classes);
+        });
+        sharedClasses.values().forEach(classes -> classes.removeIf(path -> owners.get(path) < 2));
+
+        // Every name that could ever be relocated, anything else a class refers to is irrelevant
+        Set<String> relocatable = new HashSet<>();
+        relocatedClasses.values().forEach(relocatable::addAll);
+        owners.forEach((path, count) -> {
+            if (count >= 2) relocatable.add(path.removeExtension());
+        });
+
+        // Build the reverse reference graph once: for each jar, relocatable name -> shared classes that refer to it
+        // Nests are found at the same time, so inner, anonymous and local classes are relocated together with their host
+        Map<RelocationConfig, Map<String, List<String>>> referrers = new ConcurrentHashMap<>();
+        Map<RelocationConfig, Nests> nests = new ConcurrentHashMap<>();
+        ForgixExecutor.current().forEach(relocationConfigs, config -> {
+            Map<String, List<String>> graph = new HashMap<>();
+            var configNests = new Nests(config.jar.getClasses());
+            for (var path : sharedClasses.get(config)) {
+                var bytes = config.jar.read(path);
+                ClassReferences.of(bytes, relocatable::contains).forEach(reference ->
+                        graph.computeIfAbsent(reference, _ -> new ArrayList<>()).add(path));
+                configNests.add(path, bytes);
+            }
+            for (var name : relocatedClasses.getOrDefault(config, Set.of())) {
+                var path = "${name}.class";
+                if (config.jar.contains(path)) configNests.add(path, config.jar.read(path));
+            }
+            referrers.put(config, graph);
+            nests.put(config, configNests);
+        });
+
+        // Whole nests are relocated together, otherwise a shared member would only start conflicting on the next level
+        relocatedClasses.forEach((config, names) -> relocateNests(config, nests.get(config), names));
+
+        // Walk the graph one level at a time, each level is what a single remap pass used to uncover
+        var frontier = relocatedClasses;
+        int passes = 0;
+        while (!frontier.isEmpty()) {
+            passes++;
+            Map<RelocationConfig, Set<String>> next = new HashMap<>();
+            frontier.forEach((config, names) -> names.forEach(name ->
+                    referrers.get(config).getOrDefault(name, List.of()).forEach(path -> {
+                        // Only the copies that actually change need relocating, the untouched ones can stay shared
+                        if (config.mappings.putIfAbsent(path, path.addPrefixExtension(config.conflictPrefix)) == null)
+                            next.computeIfAbsent(config, _ -> new HashSet<>()).add(path.removeExtension());
+                    })
+            ));
+            next.forEach((config, names) -> relocateNests(config, nests.get(config), names));
+            frontier = next;
+        }
+        return passes;
+    }
+
+    /**
+     * Relocates the rest of the nests of relocated classes.
+     * @param names The relocated classes by internal name, the nest mates that get relocated are added to it
+     */
+    private static void relocateNests(RelocationConfig config, Nests nests, Set<String> names) {
+        Deque<String> queue = new ArrayDeque<>(names);
+        while (!queue.isEmpty()) {
+            for (var path : nests.mates(queue.poll())) {
+                if (config.mappings.putIfAbsent(path, path.addPrefixExtension(config.conflictPrefix)) != null) continue; // Already relocated
+                var name = path.removeExtension();
+                names.add(name);
+                queue.add(name);
+            }
+        }
+    }
+
+    /**
+     * The nests of the classes of a JAR. <br>
+     * A nest is a top level class together with all its inner, anonymous and local classes.
+     * Members are linked to their host through the `NestHost`, `InnerClasses` and `EnclosingMethod` attributes,
+     * and classes without any of those (e.g. compiled for old versions and stripped) through their `$` name.
+     */
+    private static class Nests {
+        private final Set<String> classes;
+        private final Set<String> added = new HashSet<>(); // Only shared and relocated classes are ever relocated with their nest
+        private final Map<String, String> parents = new HashMap<>(); // Union find, by internal name
+        private Map<String, List<String>> members; // Built on first use, by root
+
+        private Nests(Set<String> classes) {
+            this.classes = classes;
+        }
+
+        private void add(String path, byte[] bytes) {
+            var name = path.removeExtension();
+            added.add(name);
+            var host = nestHost(name, bytes);
+            if (host == null) { // Nothing in the class, so fall back on its name
+                int dollar = name.indexOf('$', name.lastIndexOf('/') + 1);
+                if (dollar > 0 && classes.contains("${name.substring(0, dollar)}.class")) host = name.substring(0, dollar);
+            }
+            if (host != null && !host.equals(name)) union(name, host);
+        }
+
+        private static String nestHost(String name, byte[] bytes) {
+            String[] host = new String[1];
+            new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitNestHost(String nestHost) {
+                    host[0] = nestHost; // Java 11+, this is the actual host
+                }
+
+                @Override
+                public void visitOuterClass(String owner, String method, String descriptor) {
+                    if (host[0] == null) host[0] = owner; // Anonymous and local classes
+                }
+
+                @Override
+                public void visitInnerClass(String innerName, String outerName, String simpleName, int access) {
+                    if (host[0] == null && innerName.equals(name) && outerName != null) host[0] = outerName; // Member classes
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return host[0];
+        }
+
+        private String find(String name) {
+            var parent = parents.get(name);
+            if (parent == null) return name;
+            var root = find(parent);
+            if (!root.equals(parent)) parents.put(name, root);
+            return root;
+        }
+
+        private void union(String a, String b) {
+            var rootA = find(a);
+            var rootB = find(b);
+            if (!rootA.equals(rootB)) parents.put(rootA, rootB);
+        }
+
+        /**
+         * @return The paths of every shared or relocated class in the same nest, including the class itself
+         */
+        private List<String> mates(String name) {
+            if (members == null) {
+                members = new HashMap<>();
+                parents.keySet().forEach(member -> members.computeIfAbsent(find(member), _ -> new ArrayList<>()).add("${member}.class"));
+                members.forEach((root, paths) -> {
+                    if (added.contains(root)) paths.add("${root}.class");
+                });
+            }
+            return members.getOrDefault(find(name), List.of());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.pacifistmc.forgix.core;
+
+import com.google.gson.*;
+import io.github.pacifistmc.forgix.utils.PathGlob;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Decides what happens to a resource that's different in more than one JAR. <br>
+ * Relocating is always safe, but every relocated resource is another name to look for in every text resource,
+ * and mods with lots of assets (textures, lang files, tags) rarely need their own copy of each.
+ * The policies are globs in order, the first one that matches a path wins:
+ * ```
+ * "*.json"    -> merge
+ * "*.png"     -> keep-first
+ * "assets/**" -> keep-first
+ * ```
+ * Classes, the manifest and services are never affected, those are always relocated or merged as before.
+ */
+public class ConflictPolicies {
+    /**
+     * What's done with a conflicting resource.
+     */
+    public enum Strategy {
+        /**
+         * Every version gets its own relocated copy, this is what happens to anything no policy matches.
+         */
+        RELOCATE,
+        /**
+         * The version of the first JAR is used by all of them.
+         */
+        KEEP_FIRST,
+        /**
+         * The version of one loader is used by all of them, or the first one if that loader doesn't have it.
+         */
+        KEEP_FROM,
+        /**
+         * The versions are merged into one, JSON objects key by key (arrays are combined) and everything else line by line.
+         */
+        MERGE,
+        /**
+         * The merge fails.
+         */
+        FAIL
+    }
+
+    /**
+     * @param strategy What's done with the resource
+     * @param loader The loader whose version is kept, only for {@link Strategy#KEEP_FROM}
+     */
+    public record Policy(Strategy strategy, String loader) {
+        public static final Policy RELOCATE = new Policy(Strategy.RELOCATE, null);
+
+        /**
+         * Parses a policy, for configurations and the command line.
+         * @param policy `relocate`, `keep-first`, `keep-from:<loader>`, `merge` or `fail`
+         */
+        public static Policy of(String policy) {
+            var trimmed = policy.trim();
+            if (trimmed.startsWith("keep-from:") && trimmed.length() > "keep-from:".length()) return new Policy(Strategy.KEEP_FROM, trimmed.substring("keep-from:".length()));
+            try {
+                var strategy = Strategy.valueOf(trimmed.toUpperCase(Locale.ROOT).replace('-', '_'));
+                if (strategy != Strategy.KEEP_FROM) return new Policy(strategy, null);
+            } catch (IllegalArgumentException _) { }
+            throw new IllegalArgumentException("Unknown conflict policy: ${policy}, expected relocate, keep-first, keep-from:<loader>, merge or fail");
+        }
+
+        @Override
+        public String toString() {
+            var name = strategy.name().toLowerCase(Locale.ROOT).replace('_', '-');
+            return loader == null ? name : "${name}:${loader}";
+        }
+    }
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private record Rule(PathGlob glob, Policy policy) { }
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * @param policies Globs to policies, in the order they're checked, see {@link Policy#of}
+     */
+    public ConflictPolicies(Map<String, String> policies) {
+        policies.forEach((glob, policy) -> rules.add(new Rule(PathGlob.of(glob), Policy.of(policy))));
+    }
+
+    /**
+     * @return Whether there aren't any policies, so everything is relocated
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Finds the policy for a resource.
+     * @param path The path of the resource in the JAR
+     * @return The policy of the first glob that matches, {@link Policy#RELOCATE} if none do
+     */
+    public Policy find(String path) {
+        for (var rule : rules) {
+            if (rule.glob.matches(path)) return rule.policy;
+        }
+        return Policy.RELOCATE;
+    }
+
+    /**
+     * Merges the versions of a resource into one. <br>
+     * JSON (lang files, tags, models) is merged key by key, where a key is in more than one version the first one wins unless both are objects or arrays,
+     * arrays (like the values of a tag) have the values of all versions without duplicates.
+     * Anything else (or JSON we can't parse) keeps every distinct line, the same as services.
+     * @param path The path of the resource in the JAR
+     * @param versions The different versions, the first ones win
+     * @return The merged resource
+     */
+    public static byte[] merge(String path, List<byte[]> versions) {
+        if (path.endsWith(".json") || path.endsWith(".mcmeta")) {
+            try {
+                JsonElement merged = null;
+                for (var version : versions) {
+                    var json = JsonParser.parseString(new String(version, StandardCharsets.UTF_8));
+                    merged = merged == null ? json : mergeJson(merged, json);
+                }
+                return GSON.toJson(merged).getBytes(StandardCharsets.UTF_8);
+            } catch (JsonParseException _) {
+                // Not valid JSON after all, so it's merged as text
+            }
+        }
+        return versions.stream()
+                .flatMap(version -> new String(version, StandardCharsets.UTF_8).lines())
+                .distinct()
+                .collect(Collectors.joining("\n"))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonElement mergeJson(JsonElement first, JsonElement second) {
+        if (first.isJsonObject() && second.isJsonObject()) {
+            var merged = first.getAsJsonObject().deepCopy();
+            second.getAsJsonObject().entrySet().forEach(entry -> merged.add(entry.getKey(),
+                    merged.has(entry.getKey()) ? mergeJson(merged.get(entry.getKey()), entry.getValue()) : entry.getValue().deepCopy()));
+            return merged;
+        }
+        if (first.isJsonArray() && second.isJsonArray()) {
+            var merged = first.getAsJsonArray().deepCopy();
+            second.getAsJsonArray().forEach(element -> {
+                if (!merged.contains(element)) merged.add(element.deepCopy());
+            });
+            return merged;
+        }
+        return first;
+    }
+}
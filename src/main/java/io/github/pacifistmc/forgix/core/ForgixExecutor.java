@@ -0,0 +1,305 @@
+package io.github.pacifistmc.forgix.core;
+
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the parallel parts of Forgix (per jar, per entry, etc.) on threads we control. <br>
+ * Plain parallel streams all share the JVM-wide common pool, which inside a Gradle daemon is also used by everything else,
+ * and blocking ZIP reads stall it. An executor can instead be a bounded pool of our own or virtual threads,
+ * and either way Forgix never uses more than its parallelism so other tasks running at the same time still get CPU.
+ * <br><br>
+ * The executor is picked up by everything running inside {@link #run}, including nested {@link #forEach} calls:
+ * ```
+ * try (var executor = ForgixExecutor.create("virtual", 4)) {
+ *     executor.run(() -> Forgix.mergeLoaders(jars, outputFile));
+ * }
+ * ```
+ */
+public class ForgixExecutor implements Closeable {
+    /**
+     * The kinds of executors.
+     */
+    public enum Type {
+        /**
+         * The JVM-wide common pool, which is what plain parallel streams use.
+         */
+        COMMON,
+        /**
+         * A pool of platform threads of our own.
+         */
+        PLATFORM,
+        /**
+         * A new virtual thread for every task, best for reading entries since that mostly waits on I/O.
+         */
+        VIRTUAL
+    }
+
+    private static final ForgixExecutor COMMON = new ForgixExecutor(Type.COMMON, ForkJoinPool.getCommonPoolParallelism());
+    private static final ThreadLocal<ForgixExecutor> CURRENT = new ThreadLocal<>();
+
+    private final Type type;
+    private final int parallelism;
+    private final ForkJoinPool pool; // Only for PLATFORM
+    private final Semaphore permits; // Only for VIRTUAL
+
+    private ForgixExecutor(Type type, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1, got ${parallelism}");
+        this.type = type;
+        this.parallelism = parallelism;
+        this.pool = type == Type.PLATFORM ? new ForkJoinPool(parallelism, pool -> new Worker(pool, this), null, false) : null;
+        this.permits = type == Type.VIRTUAL ? new Semaphore(parallelism) : null;
+    }
+
+    /**
+     * Creates an executor.
+     * @param type The kind of executor, see {@link Type}
+     * @param parallelism The most tasks that run at the same time, ignored for {@link Type#COMMON}, usually {@link #defaultParallelism()}
+     */
+    public static ForgixExecutor create(Type type, int parallelism) {
+        return type == Type.COMMON ? COMMON : new ForgixExecutor(type, parallelism);
+    }
+
+    /**
+     * Creates an executor from its name, for configurations and the command line.
+     * @param type `common`, `platform` or `virtual`
+     * @param parallelism The most tasks that run at the same time, ignored for `common`, usually {@link #defaultParallelism()}
+     */
+    public static ForgixExecutor create(String type, int parallelism) {
+        try {
+            return create(Type.valueOf(type.trim().toUpperCase(Locale.ROOT)), parallelism);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown executor: ${type}, expected common, platform or virtual");
+        }
+    }
+
+    /**
+     * @return The executor running the current code, or the common one if there isn't any
+     */
+    public static ForgixExecutor current() {
+        if (Thread.currentThread() instanceof Worker worker) return worker.executor;
+        var current = CURRENT.get();
+        return current == null ? COMMON : current;
+    }
+
+    /**
+     * The number of CPUs we're actually allowed to use. <br>
+     * The JVM usually already takes container limits into account, but not when it's been told otherwise (e.g. `-XX:-UseContainerSupport`),
+     * so the cgroup CPU quota is checked as well.
+     */
+    public static int defaultParallelism() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int quota = cgroupCpuLimit();
+        return Math.max(1, quota > 0 ? Math.min(processors, quota) : processors);
+    }
+
+    /**
+     * Reads the CPU quota from cgroup v2 (`cpu.max`) or v1 (`cpu.cfs_quota_us` and `cpu.cfs_period_us`).
+     * @return The quota rounded up to whole CPUs, or -1 if there's none
+     */
+    private static int cgroupCpuLimit() {
+        try {
+            var cpuMax = Path.of("/sys/fs/cgroup/cpu.max");
+            if (Files.isReadable(cpuMax)) {
+                var parts = Files.readString(cpuMax).trim().split("\\s+");
+                if (parts.length == 2 && !parts[0].equals("max")) return ceilDiv(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                return -1;
+            }
+            var quota = Path.of("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+            var period = Path.of("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+            if (Files.isReadable(quota) && Files.isReadable(period)) {
+                long quotaValue = Long.parseLong(Files.readString(quota).trim());
+                if (quotaValue > 0) return ceilDiv(quotaValue, Long.parseLong(Files.readString(period).trim()));
+            }
+        } catch (Exception _) {
+            // Not on Linux or something we don't understand, the JVM's answer will do
+        }
+        return -1;
+    }
+
+    private static int ceilDiv(long quota, long period) {
+        return period <= 0 ? -1 : (int) Math.max(1, Math.ceilDiv(quota, period));
+    }
+
+    /**
+     * @return The kind of this executor
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The most tasks this executor runs at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Runs something with this as the {@link #current()} executor.
+     */
+    public void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs something with this as the {@link #current()} executor.
+     * @return What the action returned
+     */
+    public <R> R call(Supplier<R> action) {
+        var previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Runs an action for every item in parallel and waits for all of them.
+     * If an action throws, the first exception is rethrown (once everything is done) with the others suppressed.
+     */
+    public <T> void forEach(Collection<T> items, Consumer<? super T> action) {
+        if (items.isEmpty()) return;
+        switch (type) {
+            case COMMON -> items.parallelStream().forEach(action);
+            case PLATFORM -> inPool(() -> {
+                items.parallelStream().forEach(action);
+                return null;
+            });
+            case VIRTUAL -> forEachVirtual(items, action);
+        }
+    }
+
+    /**
+     * Runs an action for every index from 0 until the count in parallel and waits for all of them. <br>
+     * This is for flat work queues that are too big to want an object per item, every index is its own task so idle threads can steal any of them.
+     */
+    public void forEachIndex(int count, IntConsumer action) {
+        if (count <= 0) return;
+        switch (type) {
+            case COMMON -> IntStream.range(0, count).parallel().forEach(action);
+            case PLATFORM -> inPool(() -> {
+                IntStream.range(0, count).parallel().forEach(action);
+                return null;
+            });
+            case VIRTUAL -> {
+                // A virtual thread per index would be too many, so every thread takes the next index until there are none left
+                var next = new AtomicInteger();
+                forEachVirtual(Collections.nCopies(Math.min(count, parallelism), next), counter -> {
+                    for (int i = counter.getAndIncrement(); i < count; i = counter.getAndIncrement()) action.accept(i);
+                });
+            }
+        }
+    }
+
+    /**
+     * Maps every item in parallel.
+     * @return The results in the same order as the items
+     */
+    public <T, R> List<R> map(Collection<T> items, Function<? super T, ? extends R> function) {
+        if (items.isEmpty()) return List.of();
+        return switch (type) {
+            case COMMON -> items.parallelStream().<R>map(function).toList();
+            case PLATFORM -> inPool(() -> items.parallelStream().<R>map(function).toList());
+            case VIRTUAL -> {
+                List<T> list = List.copyOf(items);
+                Object[] results = new Object[list.size()];
+                var indexes = new ArrayList<Integer>(list.size());
+                for (int i = 0; i < list.size(); i++) indexes.add(i);
+                forEachVirtual(indexes, i -> results[i] = function.apply(list.get(i)));
+                @SuppressWarnings("unchecked") List<R> mapped = (List<R>) Arrays.asList(results);
+                yield Collections.unmodifiableList(mapped);
+            }
+        };
+    }
+
+    /**
+     * Parallel streams use the pool they're started from, so running them inside our pool keeps them (and anything they nest) off the common pool.
+     */
+    private <R> R inPool(Supplier<R> action) {
+        if (ForkJoinTask.getPool() == pool) return action.get(); // Already in our pool, e.g. a nested forEach
+        return pool.submit(action::get).join();
+    }
+
+    /**
+     * Starts a virtual thread for every item as long as there's a free permit, otherwise the calling thread runs the item itself. <br>
+     * That keeps the number of running tasks at the parallelism without ever deadlocking,
+     * since a nested forEach never waits for permits that its own parents are holding.
+     */
+    private <T> void forEachVirtual(Collection<T> items, Consumer<? super T> action) {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (var item : items) {
+            if (!failures.isEmpty()) break; // No point starting anything else
+            if (permits.tryAcquire()) {
+                threads.add(Thread.ofVirtual().name("forgix-virtual").start(() -> {
+                    CURRENT.set(this);
+                    try {
+                        action.accept(item);
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            } else {
+                try {
+                    call(() -> {
+                        action.accept(item);
+                        return null;
+                    });
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        }
+        for (var thread : threads) thread.join();
+
+        if (failures.isEmpty()) return;
+        var failure = failures.getFirst();
+        failures.subList(1, failures.size()).forEach(failure::addSuppressed);
+        if (failure instanceof RuntimeException runtimeException) throw runtimeException;
+        if (failure instanceof Error error) throw error;
+        throw new RuntimeException(failure);
+    }
+
+    /**
+     * Shuts down the pool, the common executor is never closed.
+     */
+    @Override
+    public void close() {
+        if (pool != null) pool.shutdown();
+    }
+
+    /**
+     * A thread of our pool, so {@link #current()} knows which executor it belongs to.
+     */
+    private static class Worker extends ForkJoinWorkerThread {
+        private final ForgixExecutor executor;
+
+        private Worker(ForkJoinPool pool, ForgixExecutor executor) {
+            super(pool);
+            this.executor = executor;
+            setName("forgix-platform");
+            setDaemon(true);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.pacifistmc.forgix.core;
+
+import io.github.pacifistmc.forgix.utils.JarFilePool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Holds everything a single merge needs while it's running, like its temporary files and open JARs. <br>
+ * Nothing is shared between sessions, so merges can run in parallel in the same JVM (e.g. a Gradle daemon)
+ * and closing a session releases everything it used instead of waiting for the JVM to exit.
+ * <br><br>
+ * Usage:
+ * ```
+ * try (var session = new ForgixSession()) {
+ *     var jar = session.track(new InMemoryJar(file, session.jarFilePool));
+ *     TinyClassWriter.write(configs, session.getTempDir("tiny"));
+ * }
+ * ```
+ */
+public class ForgixSession implements Closeable {
+    private final Deque<Closeable> resources = new ArrayDeque<>();
+    private final JarFilePool jarFilePool;
+    private File tempDir;
+    private boolean closed;
+
+    /**
+     * Creates a session.
+     * @param maxOpenJars The most JARs this session keeps open at once, see {@link JarFilePool}
+     */
+    public ForgixSession(int maxOpenJars = JarFilePool.DEFAULT_MAX_OPEN) {
+        jarFilePool = track(new JarFilePool(maxOpenJars)); // Tracked first so it's closed after the JARs that use it
+    }
+
+    /**
+     * @return The pool the JARs of this session are opened from
+     */
+    public JarFilePool getJarFilePool() {
+        return jarFilePool;
+    }
+
+    /**
+     * Gets the temporary directory of this session, it's created the first time this is called and deleted when the session is closed.
+     * @return The temporary directory
+     */
+    public synchronized File getTempDir() {
+        if (closed) throw new IllegalStateException("ForgixSession is already closed");
+        if (tempDir == null) tempDir = Files.createTempDirectory("forgix-session").toFile();
+        return tempDir;
+    }
+
+    /**
+     * Gets a directory inside the temporary directory of this session.
+     * @param name The name of the directory
+     * @return The directory, it's created if it doesn't exist
+     */
+    public File getTempDir(String name) {
+        var directory = new File(getTempDir(), name);
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Closes a resource when the session is closed, resources are closed in the reverse order they were tracked in.
+     * @param resource The resource to close
+     * @return The same resource
+     */
+    public synchronized <T extends Closeable> T track(T resource) {
+        if (closed) throw new IllegalStateException("ForgixSession is already closed");
+        resources.push(resource);
+        return resource;
+    }
+
+    /**
+     * Closes all the tracked resources and deletes the temporary directory.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        // Keep going if something fails to close, everything else still has to be released
+        Exception failure = null;
+        while (!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (Exception e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (tempDir != null) tempDir.deleteQuietly();
+        if (failure != null) throw failure;
+    }
+}
@@ -3,7 +3,7 @@ package io.github.pacifistmc.forgix.core;
 import com.google.gson.Gson;
 import io.github.pacifistmc.forgix.Forgix;
 import io.github.pacifistmc.forgix.multiversion.versioning.ForgixVersionJson;
-import io.github.pacifistmc.forgix.utils.JAR;
+import io.github.pacifistmc.forgix.utils.InMemoryJar;
 import net.lingala.zip4j.ZipFile;
 import org.apache.commons.io.IOUtils;
 
@@ -12,11 +12,11 @@ import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.CRC32;
@@ -24,45 +24,52 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 public class Multiversion {
-    private static final File tempDir = Files.createTempDirectory("forgix-multiversion").toFile();
-    private static final File multiversionJar = tempDir.toPath().resolve("forgix-multiversion.jar").toFile();
-    private static final String uuid = generateMultiversionUUID();
     private static final Gson gson = new Gson();
 
     private static String generateMultiversionUUID() {
         return "forgix_multiversion_${UUID.randomUUID().toString().replace(\"-\", \"\")}".first(60);
     }
 
-    static {
-        tempDir.mustDeleteOnExit();
-
-
+    /**
+     * Sets up the internal multiversion mod, every merge gets its own copy relocated to its own uuid.
+     * @param session The session to put the JAR in
+     * @param uuid The uuid of the merge
+     * @return The multiversion JAR
+     */
+    private static File prepareMultiversionJar(ForgixSession session, String uuid) {
+        var multiversionJar = new File(session.getTempDir("multiversion"), "forgix-multiversion.jar");
         try (var multiversionJarResource = Multiversion.class.getResourceAsStream("/multiversion/forgix-multiversion.jar")) {
             if (multiversionJarResource == null) throw new RuntimeException("Could not find internal multiversion jar. This should never happen!");
-            IOUtils.copy(multiversionJarResource, Files.newOutputStream(multiversionJar.toPath()));
+            Files.copy(multiversionJarResource, multiversionJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
 
-        try (var jarFile = new JarFile(multiversionJar)) {
+        try (var jar = new InMemoryJar(multiversionJar, session.jarFilePool)) {
             Map<String, String> renameMap = new HashMap<>();
-            JAR.getClasses(jarFile).forEach(entry -> renameMap.put(entry.name, "${uuid}/${entry.name.replace(\"-\", \"_\")}")); // TODO: jvmdg can create invalid package names, it made something like `hello_world-neoforge` which neoforge doesn't like
+            jar.getClasses().forEach(name -> renameMap.put(name, "${uuid}/${name.replace(\"-\", \"_\")}")); // TODO: jvmdg can create invalid package names, it made something like `hello_world-neoforge` which neoforge doesn't like
+            jar.remove(name -> name.startsWith("META-INF/forgix/")); // Removed in the same rewrite as the relocation
 
-            var relocationConfig = new RelocationConfig(jarFile, uuid);
+            var relocationConfig = new RelocationConfig(jar, uuid);
             relocationConfig.setMappings(renameMap);
             Relocator.relocate(List.of(relocationConfig));
         }
-
-        JAR.removeFiles(multiversionJar, List.of(
-                "META-INF/forgix/"
-        ));
+        return multiversionJar;
     }
 
     /**
      * Merges multiple versions of a mod into a single JAR file.
      * @param versionsAndFilePathMap The map of versions and their corresponding file paths <br>
      *                               Note: The version key is not semver! It is using Forge's version range format.
+     * @param session The session to use for temporary files, a new one is used (and closed) if this is null
      * @return The merged JAR file as a ByteArrayOutputStream
      */
-    public static ByteArrayOutputStream mergeVersions(Map<String, Path> versionsAndFilePathMap, LoaderInformation loader) {
+    public static ByteArrayOutputStream mergeVersions(Map<String, Path> versionsAndFilePathMap, LoaderInformation loader, ForgixSession session = null) {
+        if (session == null) {
+            try (var newSession = new ForgixSession()) {
+                return mergeVersions(versionsAndFilePathMap, loader, newSession);
+            }
+        }
+
+        var uuid = generateMultiversionUUID();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (var zos = new ZipOutputStream(baos)) {
             var versionsJson = new ForgixVersionJson();
@@ -142,7 +149,7 @@ public class Multiversion {
 
             if (loader.forge) {
                 // Add contents from the multiversion jar
-                try (var zipFile = new ZipFile(multiversionJar)) {
+                try (var zipFile = new ZipFile(prepareMultiversionJar(session, uuid))) {
                     zipFile.getFileHeaders().forEach(header -> {
                         var name = header.getFileName();
                         zos.putNextEntry(new ZipEntry(name));
@@ -164,7 +171,7 @@ public class Multiversion {
             // Create the fabric mod json file
             if (loader.fabricModId != null) {
                 zos.putNextEntry(new ZipEntry("fabric.mod.json"));
-                zos.write(gson.toJson(new FabricModJson(versionsJson.versions.values(), sharedJarPath, loader.fabricModId)).getBytes());
+                zos.write(gson.toJson(new FabricModJson(uuid, versionsJson.versions.values(), sharedJarPath, loader.fabricModId)).getBytes());
                 zos.closeEntry();
             }
 
@@ -177,13 +184,14 @@ public class Multiversion {
      * Merges multiple versions of a mod into a single JAR file.
      * Automatically determines the version ranges from the mods.toml file.
      * @param jars The collection of JAR files to merge
+     * @param session The session to use for temporary files, a new one is used (and closed) if this is null
      * @return The merged JAR file as a ByteArrayOutputStream
      */
-    public static ByteArrayOutputStream mergeVersions(Collection<File> jars) {
+    public static ByteArrayOutputStream mergeVersions(Collection<File> jars, ForgixSession session = null) {
         Map<String, Path> versionsAndFilePathMap = new ConcurrentHashMap<>();
         AtomicReference<LoaderInformation> loaderInformation = new AtomicReference<>();
         // Process each jar to extract version information
-        jars.parallelStream().forEach(jar -> {
+        ForgixExecutor.current().forEach(jars, jar -> {
             try (var zipFile = new ZipFile(jar)) {
                 String mcVersionRange = "[0,)"; // Default to match all versions
 
@@ -228,7 +236,7 @@ public class Multiversion {
                 versionsAndFilePathMap.put(mcVersionRange, jar.toPath());
             }
         });
-        return mergeVersions(versionsAndFilePathMap, loaderInformation.get());
+        return mergeVersions(versionsAndFilePathMap, loaderInformation.get(), session);
     }
 
     public record LoaderInformation(boolean forge, String fabricModId) {}
@@ -239,7 +247,7 @@ public class Multiversion {
      */
     public static class FabricModJson {
         public int schemaVersion = 1;
-        public String id = uuid;
+        public String id;
         public String version = Forgix.VERSION;
         public List<Map<String, String>> jars = new ArrayList<>();
         public Map<String, Object> custom = Map.of(
@@ -249,7 +257,8 @@ public class Multiversion {
         );
         public Map<String, Object> depends = new HashMap<>();
 
-        public FabricModJson(Collection<String> jars, String sharedJar, String modId) {
+        public FabricModJson(String id, Collection<String> jars, String sharedJar, String modId) {
+            this.id = id;
             if (sharedJar != null) this.jars.add(Map.of("file", sharedJar));
             jars.forEach(path -> this.jars.add(Map.of("file", path)));
             this.depends.put(modId, "*");
@@ -271,30 +280,29 @@ public class Multiversion {
         var fileContentMap = new ConcurrentHashMap<String, Map<Integer, byte[]>>();
 
         // Process all jars in parallel
-        jarPaths.parallelStream().forEach(jarPath -> {
+        var executor = ForgixExecutor.current();
+        executor.forEach(jarPaths, jarPath -> {
             if (!Files.exists(jarPath)) {
                 "${jarPath} does not exist! Skipping...".err();
                 return;
             }
             try (var zipFile = new ZipFile(jarPath.toFile())) {
-                zipFile.getFileHeaders().parallelStream()
-                    .filter(header -> !header.isDirectory())
-                    .forEach(header -> {
-                        var fileName = header.getFileName();
-                        var content = zipFile.getInputStream(header).readAllBytes();
-
-                        // Track occurrence count using AtomicInteger
-                        fileOccurrences.computeIfAbsent(fileName, _ -> new AtomicInteger(0)).incrementAndGet();
-//                        fileOccurrences.merge(fileName, 1, Integer::sum);
-                        
-                        // Store content by hash (so we know which files have identical content)
-                        fileContentMap.computeIfAbsent(fileName, _ -> new ConcurrentHashMap<>()).put(Arrays.hashCode(content), content);
-                    });
+                executor.forEach(zipFile.getFileHeaders().stream().filter(header -> !header.isDirectory()).toList(), header -> {
+                    var fileName = header.getFileName();
+                    var content = zipFile.getInputStream(header).readAllBytes();
+
+                    // Track occurrence count using AtomicInteger
+                    fileOccurrences.computeIfAbsent(fileName, _ -> new AtomicInteger(0)).incrementAndGet();
+//                    fileOccurrences.merge(fileName, 1, Integer::sum);
+                    
+                    // Store content by hash (so we know which files have identical content)
+                    fileContentMap.computeIfAbsent(fileName, _ -> new ConcurrentHashMap<>()).put(Arrays.hashCode(content), content);
+                });
             }
         });
         
         // Find files that appear in all jars with identical content
-        return fileOccurrences.entrySet().parallelStream()
+        return fileOccurrences.entrySet().stream()
             .filter(entry -> entry.getValue().get() == totalJars) // File appears in all jars
             .filter(entry -> fileContentMap.get(entry.getKey()).size() == 1) // File has identical content across all jars
             .collect(Collectors.toConcurrentMap(
@@ -0,0 +1,143 @@
+package io.github.pacifistmc.forgix.core;
+
+import io.github.pacifistmc.forgix.Forgix;
+import io.github.pacifistmc.forgix.utils.JAR;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Caches relocated JARs on disk so merging the exact same JARs again doesn't have to relocate anything. <br>
+ * Entries are keyed by the content of every input JAR together with its loader (and the Forgix version),
+ * since changing any one of them can change what conflicts in all the others.
+ * When the cache grows past its maximum size the least recently used entries are deleted.
+ * <br><br>
+ * Layout: `<directory>/<key>/<loader>/` holds the relocated JAR and its tiny file.
+ */
+public class RelocationCache {
+    public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024; // 512MB
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * A relocated JAR from the cache.
+     * @param jar The relocated JAR
+     * @param tinyFile The tiny file with its mappings
+     */
+    public record CachedJar(File jar, File tinyFile) { }
+
+    /**
+     * @param directory The directory to keep the cache in, e.g. `~/.gradle/caches/forgix`
+     * @param maxSize The maximum size of the cache in bytes
+     */
+    public RelocationCache(File directory, long maxSize = DEFAULT_MAX_SIZE) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Computes the cache key of a merge.
+     * @param jarsAndLoadersMap The input JARs and their loaders
+     * @param options The options the JARs are relocated with, null for the defaults
+     * @return The key, or null if the merge can't be cached (when a loader is used more than once)
+     */
+    public static String computeKey(Map<File, String> jarsAndLoadersMap, RelocationOptions options = null) {
+        if (new HashSet<>(jarsAndLoadersMap.values()).size() != jarsAndLoadersMap.size()) return null;
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(Forgix.VERSION.getBytes(StandardCharsets.UTF_8)); // A different version could relocate differently
+        digest.update((byte) 0);
+        digest.update((options == null ? new RelocationOptions() : options).fingerprint().getBytes(StandardCharsets.UTF_8)); // So could different options
+        jarsAndLoadersMap.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue()) // So the order of the map doesn't matter
+                .forEach(entry -> {
+                    digest.update((byte) 0);
+                    digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(JAR.computeHash(List.of(entry.getKey())));
+                });
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Gets the relocated JARs of a merge.
+     * @param key The key from {@link #computeKey}
+     * @param loaders The loaders of the merge, the entry has to have a JAR for exactly these
+     * @return The relocated JARs by loader, or null if they aren't cached
+     */
+    public Map<String, CachedJar> get(String key, Set<String> loaders) {
+        var entryDirectory = new File(directory, key);
+        var loaderDirectories = entryDirectory.listFiles(File::isDirectory);
+        if (loaderDirectories == null) return null;
+
+        Map<String, CachedJar> cached = new HashMap<>();
+        for (var loaderDirectory : loaderDirectories) {
+            var jars = loaderDirectory.listFiles((_, name) -> name.endsWith(".jar"));
+            var tinyFiles = loaderDirectory.listFiles((_, name) -> name.endsWith(".tiny"));
+            if (jars == null || jars.length != 1 || tinyFiles == null || tinyFiles.length != 1) return null; // Incomplete, treat it as a miss
+            cached.put(loaderDirectory.getName(), new CachedJar(jars[0], tinyFiles[0]));
+        }
+        if (!cached.keySet().equals(loaders)) return null; // Partly deleted, treat it as a miss
+        entryDirectory.setLastModified(System.currentTimeMillis()); // Recently used
+        return cached;
+    }
+
+    /**
+     * Stores the relocated JARs of a merge.
+     * @param key The key from {@link #computeKey}
+     * @param relocationConfigs The relocated configs, their JARs are saved as they are in memory
+     */
+    public void put(String key, List<RelocationConfig> relocationConfigs) {
+        directory.mkdirs();
+        var entryDirectory = new File(directory, key);
+        if (entryDirectory.exists()) return;
+
+        // Written to a temporary directory first so nobody ever sees a half written entry
+        var tempDirectory = Files.createTempDirectory(directory.toPath(), "${key}-").toFile();
+        try {
+            for (var config : relocationConfigs) {
+                var loaderDirectory = new File(tempDirectory, config.conflictPrefix);
+                loaderDirectory.mkdirs();
+                config.jar.saveTo(new File(loaderDirectory, config.jar.file.getName()));
+                Files.copy(config.tinyFile.toPath(), new File(loaderDirectory, config.tinyFile.getName()).toPath());
+            }
+            Files.move(tempDirectory.toPath(), entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (Exception e) {
+            // Someone else might've stored the same entry in the meantime, either way the cache is only an optimization
+            "Failed to cache relocated jars: ${e.getMessage()}".err();
+        } finally {
+            tempDirectory.deleteQuietly();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its maximum size.
+     */
+    private void evict() {
+        var entries = directory.listFiles(file -> file.isDirectory() && !file.getName().contains("-")); // Entries that are still being written have a `-` in their name
+        if (entries == null) return;
+
+        Map<File, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        for (var entry : entries) {
+            try (var files = Files.walk(entry.toPath())) {
+                long size = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+                sizes.put(entry, size);
+                totalSize += size;
+            }
+        }
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (var entry : entries) {
+            if (totalSize <= maxSize) break;
+            entry.deleteQuietly();
+            totalSize -= sizes.get(entry);
+        }
+    }
+}
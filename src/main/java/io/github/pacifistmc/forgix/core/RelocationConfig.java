@@ -1,5 +1,8 @@
 package io.github.pacifistmc.forgix.core;
 
+import io.github.pacifistmc.forgix.core.resources.MixinIndex;
+import io.github.pacifistmc.forgix.utils.InMemoryJar;
+
 import java.io.File;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -9,12 +12,16 @@ import java.util.jar.JarFile;
  * Configuration for relocating conflicting files in JARs.
  */
 public class RelocationConfig {
-    private JarFile jarFile;
+    private InMemoryJar jar;
     private final String conflictPrefix;
 
     // INTERNAL USE ONLY. DO NOT TOUCH.
     private Map<String, String> mappings;
     private File tinyFile;
+    private boolean mapped; // Whether the mappings have been generated
+    private int remappedClasses; // How many classes were given to the remapper
+    private int skippedClasses; // How many classes didn't mention anything relocated so they were left alone
+    private MixinIndex mixinIndex; // Built the first time resources are relocated
 
     /**
      * Creates a new RelocationConfig.
@@ -22,7 +29,16 @@ public class RelocationConfig {
      * @param conflictPrefix The prefix to use for relocated files
      */
     public RelocationConfig(JarFile jarFile, String conflictPrefix) {
-        this.jarFile = jarFile;
+        this(new InMemoryJar(jarFile), conflictPrefix);
+    }
+
+    /**
+     * Creates a new RelocationConfig for a JAR that's already loaded into memory.
+     * @param jar The JAR to relocate
+     * @param conflictPrefix The prefix to use for relocated files
+     */
+    public RelocationConfig(InMemoryJar jar, String conflictPrefix) {
+        this.jar = jar;
         this.conflictPrefix = conflictPrefix;
         this.mappings = new ConcurrentHashMap<>();
         this.tinyFile = null;
@@ -37,10 +53,11 @@ public class RelocationConfig {
      * @param tinyFile The tiny file for mappings
      */
     public RelocationConfig(JarFile jarFile, String conflictPrefix, Map<String, String> mappings, File tinyFile) {
-        this.jarFile = jarFile;
+        this.jar = new InMemoryJar(jarFile);
         this.conflictPrefix = conflictPrefix;
         this.mappings = mappings;
         this.tinyFile = tinyFile;
+        this.mapped = tinyFile != null;
     }
 
     /**
@@ -48,7 +65,7 @@ public class RelocationConfig {
      * @param jarFile The JAR file
      */
     public void setJarFile(JarFile jarFile) {
-        this.jarFile = jarFile;
+        this.jar = new InMemoryJar(jarFile);
     }
 
     /**
@@ -56,7 +73,15 @@ public class RelocationConfig {
      * @return The JAR file
      */
     public JarFile getJarFile() {
-        return jarFile;
+        return jar.getJarFile();
+    }
+
+    /**
+     * Gets the JAR to relocate, all relocation stages read from and write to this.
+     * @return The JAR
+     */
+    public InMemoryJar getJar() {
+        return jar;
     }
 
     /**
@@ -98,4 +123,62 @@ public class RelocationConfig {
     public void setTinyFile(File tinyFile) {
         this.tinyFile = tinyFile;
     }
+
+    /**
+     * Gets whether the mappings have been generated.
+     * @return Whether the mappings have been generated
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Sets whether the mappings have been generated.
+     * @param mapped Whether the mappings have been generated
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    /**
+     * Gets how many classes were remapped.
+     * @return How many classes mentioned a relocated name and were remapped
+     */
+    public int getRemappedClasses() {
+        return remappedClasses;
+    }
+
+    /**
+     * Gets how many classes were skipped.
+     * @return How many classes didn't mention any relocated name, so they were left exactly as they were
+     */
+    public int getSkippedClasses() {
+        return skippedClasses;
+    }
+
+    /**
+     * Sets how many classes were remapped and skipped.
+     * @param remappedClasses How many classes were remapped
+     * @param skippedClasses How many classes were skipped
+     */
+    public void setRemapStats(int remappedClasses, int skippedClasses) {
+        this.remappedClasses = remappedClasses;
+        this.skippedClasses = skippedClasses;
+    }
+
+    /**
+     * Gets the mixin configs of the JAR.
+     * @return The mixin index, null if resources haven't been relocated yet
+     */
+    public MixinIndex getMixinIndex() {
+        return mixinIndex;
+    }
+
+    /**
+     * Sets the mixin configs of the JAR.
+     * @param mixinIndex The mixin index
+     */
+    public void setMixinIndex(MixinIndex mixinIndex) {
+        this.mixinIndex = mixinIndex;
+    }
 }
@@ -0,0 +1,335 @@
+package io.github.pacifistmc.forgix.core;
+
+import io.github.pacifistmc.forgix.core.resources.ResourceTransformer;
+import io.github.pacifistmc.forgix.utils.ClassHierarchyIndex;
+import io.github.pacifistmc.forgix.utils.ContentSniffer;
+import io.github.pacifistmc.forgix.utils.JarFilePool;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Options that change how conflicts are found and relocated. <br>
+ * Unlike {@link RelocationConfig} these apply to the whole merge, not to a single JAR.
+ */
+public class RelocationOptions {
+    /**
+     * What classes are remapped with.
+     */
+    public enum RemapEngine {
+        /**
+         * TinyRemapper, which only remaps actual type references.
+         */
+        TINY_REMAPPER,
+        /**
+         * Plain ASM, which also remaps string constants that are relocated class names (e.g. `Class.forName` and mixin targets).
+         */
+        ASM;
+
+        /**
+         * Gets an engine by its name, for configurations and the command line.
+         * @param name `tiny-remapper` or `asm`
+         */
+        public static RemapEngine of(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown remap engine: ${name}, expected tiny-remapper or asm");
+            }
+        }
+    }
+
+    /**
+     * How thorough a merge is, everything that trades precision for speed is set together. <br>
+     * The output of {@link #DEV_FAST} is fine to run, it just isn't what should be published.
+     */
+    public enum Profile {
+        /**
+         * For local builds. Entries whose CRC-32 and size match are trusted without being read,
+         * and TinyRemapper doesn't rename invalid locals or rebuild source file names.
+         */
+        DEV_FAST(Comparison.CRC, false, ContentSniffer.SNIFF_LENGTH, false),
+        /**
+         * The default. Entries whose CRC-32 and size match are read once to compare their CRC-32C too.
+         */
+        RELEASE(Comparison.CHECKSUM, true, ContentSniffer.SNIFF_LENGTH, false),
+        /**
+         * For when something went wrong. Entries whose CRC-32 and size match are compared byte by byte,
+         * resources are only text replaced if all of it looks like text (not just the start),
+         * and every remapped class is checked for references to a class name that was relocated away.
+         */
+        PARANOID(Comparison.BYTES, true, Integer.MAX_VALUE, true);
+
+        /**
+         * How entries with the same path, CRC-32 and size are told apart.
+         */
+        public enum Comparison {
+            /**
+             * They aren't, the central directory is trusted.
+             */
+            CRC,
+            /**
+             * By a CRC-32C of their content, see {@link io.github.pacifistmc.forgix.utils.JAR#computeChecksum}.
+             */
+            CHECKSUM,
+            /**
+             * By their content.
+             */
+            BYTES
+        }
+
+        public final Comparison comparison;
+        /**
+         * Whether TinyRemapper renames invalid locals and rebuilds source file names, which only matters for debugging and decompiling.
+         */
+        public final boolean rebuildDebugInfo;
+        /**
+         * How much of a resource without a known extension is looked at before it's text replaced, see {@link ContentSniffer}.
+         */
+        public final int sniffLength;
+        /**
+         * Whether the remapped classes are checked afterward.
+         */
+        public final boolean verifyRemapping;
+
+        Profile(Comparison comparison, boolean rebuildDebugInfo, int sniffLength, boolean verifyRemapping) {
+            this.comparison = comparison;
+            this.rebuildDebugInfo = rebuildDebugInfo;
+            this.sniffLength = sniffLength;
+            this.verifyRemapping = verifyRemapping;
+        }
+
+        /**
+         * Gets a profile by its name, for configurations and the command line.
+         * @param name `dev-fast`, `release` or `paranoid`
+         */
+        public static Profile of(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown profile: ${name}, expected dev-fast, release or paranoid");
+            }
+        }
+
+        /**
+         * Gets the profile from the `FORGIX_PROFILE` environment variable, so CI can pick one without changing the build.
+         * @return The profile, {@link #RELEASE} if it isn't set
+         */
+        public static Profile fromEnvironment() {
+            var name = System.getenv("FORGIX_PROFILE");
+            return name == null || name.isBlank() ? RELEASE : of(name);
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    private Profile profile = Profile.RELEASE;
+    private boolean normalizeBytecode;
+    private boolean shareMajority;
+    private RemapEngine remapEngine = RemapEngine.TINY_REMAPPER;
+    private List<ResourceTransformer> resourceTransformers = new ArrayList<>();
+    private Map<String, List<File>> classpath = new HashMap<>();
+    private File hierarchyCacheDirectory;
+    private Map<String, Map<String, String>> previousMappings = new HashMap<>();
+    private Map<String, String> conflictPolicies = new LinkedHashMap<>();
+    private int maxOpenJars = JarFilePool.DEFAULT_MAX_OPEN;
+
+    /**
+     * Gets the profile of the merge.
+     * @return The profile
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the profile of the merge, how much precision is traded for speed.
+     * @param profile The profile
+     */
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Gets whether classes are compared by their normalized bytecode.
+     * @return Whether classes are compared by their normalized bytecode
+     */
+    public boolean isNormalizeBytecode() {
+        return normalizeBytecode;
+    }
+
+    /**
+     * Sets whether classes are compared by their normalized bytecode instead of their raw bytes. <br>
+     * Two builds of the same code usually only differ in debug info (source file, line numbers, local variables)
+     * and constant pool order, with this on those are treated as the same class and kept once instead of being relocated.
+     * @param normalizeBytecode Whether classes are compared by their normalized bytecode
+     */
+    public void setNormalizeBytecode(boolean normalizeBytecode) {
+        this.normalizeBytecode = normalizeBytecode;
+    }
+
+    /**
+     * Gets whether the version of an entry most JARs have is shared instead of relocated.
+     * @return Whether the majority version is shared
+     */
+    public boolean isShareMajority() {
+        return shareMajority;
+    }
+
+    /**
+     * Sets whether the version of an entry most JARs have is shared instead of relocated, the N-way merge mode. <br>
+     * Normally every different version of a conflicting entry is relocated, so with lots of platforms the output ends up with a copy per JAR.
+     * With this on the identical copies are grouped together, the version most JARs have keeps its path and is kept once,
+     * and every other version is relocated once no matter how many JARs have it.
+     * @param shareMajority Whether the majority version is shared
+     */
+    public void setShareMajority(boolean shareMajority) {
+        this.shareMajority = shareMajority;
+    }
+
+    /**
+     * Gets what classes are remapped with.
+     * @return The remap engine
+     */
+    public RemapEngine getRemapEngine() {
+        return remapEngine;
+    }
+
+    /**
+     * Sets what classes are remapped with.
+     * @param remapEngine The remap engine
+     */
+    public void setRemapEngine(RemapEngine remapEngine) {
+        this.remapEngine = remapEngine;
+    }
+
+    /**
+     * Gets the third-party resource transformers.
+     * @return The resource transformers, checked before the built-in ones
+     */
+    public List<ResourceTransformer> getResourceTransformers() {
+        return resourceTransformers;
+    }
+
+    /**
+     * Sets the third-party resource transformers, see {@link io.github.pacifistmc.forgix.core.resources.ResourceTransformers}.
+     * @param resourceTransformers The resource transformers, checked before the built-in ones
+     */
+    public void setResourceTransformers(List<ResourceTransformer> resourceTransformers) {
+        this.resourceTransformers = resourceTransformers;
+    }
+
+    /**
+     * Gets the classpath of each loader.
+     * @return The classpath JARs by loader
+     */
+    public Map<String, List<File>> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * Sets the classpath of each loader (Minecraft, the loader and its APIs), so TinyRemapper can resolve members that relocated classes inherit from them.
+     * Only a {@link ClassHierarchyIndex} of each JAR is ever read, not the JARs themselves.
+     * @param classpath The classpath JARs by loader
+     */
+    public void setClasspath(Map<String, List<File>> classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Gets the directory the class hierarchy indexes of the classpath are cached in.
+     * @return The directory, by default `.forgix/hierarchy` in the user's home so it outlives the temp directory being cleaned
+     */
+    public File getHierarchyCacheDirectory() {
+        return hierarchyCacheDirectory != null ? hierarchyCacheDirectory : new File(System.getProperty("user.home"), ".forgix/hierarchy");
+    }
+
+    /**
+     * Sets the directory the class hierarchy indexes of the classpath are cached in.
+     * @param hierarchyCacheDirectory The directory, null for the default
+     */
+    public void setHierarchyCacheDirectory(File hierarchyCacheDirectory) {
+        this.hierarchyCacheDirectory = hierarchyCacheDirectory;
+    }
+
+    /**
+     * Gets the class mappings of the previous release.
+     * @return The original paths to the relocated paths by loader
+     */
+    public Map<String, Map<String, String>> getPreviousMappings() {
+        return previousMappings;
+    }
+
+    /**
+     * Sets the class mappings of the previous release, so relocated classes keep their names from one release to the next, see {@link StableNames}.
+     * @param previousMappings The original paths to the relocated paths by loader, usually from {@link StableNames#read}
+     */
+    public void setPreviousMappings(Map<String, Map<String, String>> previousMappings) {
+        this.previousMappings = previousMappings;
+    }
+
+    /**
+     * Gets what's done with conflicting resources.
+     * @return The policies by glob, in the order they're checked
+     */
+    public Map<String, String> getConflictPolicies() {
+        return conflictPolicies;
+    }
+
+    /**
+     * Sets what's done with conflicting resources instead of relocating them, see {@link ConflictPolicies}. <br>
+     * The first glob that matches a resource wins, resources no glob matches are relocated.
+     * @param conflictPolicies The policies by glob (`relocate`, `keep-first`, `keep-from:<loader>`, `merge` or `fail`), in the order they're checked
+     */
+    public void setConflictPolicies(Map<String, String> conflictPolicies) {
+        this.conflictPolicies = conflictPolicies;
+    }
+
+    /**
+     * Gets the most JARs a merge keeps open at once.
+     * @return The most open JARs
+     */
+    public int getMaxOpenJars() {
+        return maxOpenJars;
+    }
+
+    /**
+     * Sets the most JARs a merge keeps open at once, see {@link JarFilePool}. <br>
+     * It only applies to the merge these options are used for, it doesn't change the merged JAR.
+     * @param maxOpenJars The most open JARs, at least 1
+     */
+    public void setMaxOpenJars(int maxOpenJars) {
+        if (maxOpenJars < 1) throw new IllegalArgumentException("Max open JARs must be at least 1, got ${maxOpenJars}");
+        this.maxOpenJars = maxOpenJars;
+    }
+
+    /**
+     * Describes every option that changes the relocated JARs, so results relocated with different options are never mixed up.
+     * @return The options as a string, e.g. for a cache key
+     */
+    public String fingerprint() {
+        var transformers = resourceTransformers.stream().map(transformer -> transformer.getClass().getName()).toList();
+        var classpathHashes = new TreeMap<String, List<String>>(); // Sorted by loader, each classpath keeps its order since that's the order TinyRemapper reads it in
+        classpath.forEach((loader, jars) -> classpathHashes.put(loader, jars.stream().map(ClassHierarchyIndex::hash).toList()));
+        return "profile=${profile};normalizeBytecode=${normalizeBytecode};shareMajority=${shareMajority};remapEngine=${remapEngine};resourceTransformers=${transformers};classpath=${classpathHashes};previousMappings=${previousMappingsHash()};conflictPolicies=${conflictPolicies}";
+    }
+
+    /**
+     * The previous mappings decide what relocated classes are named, so they're hashed completely and in a fixed order.
+     * @return The SHA-256 of every loader, original name and relocated name
+     */
+    private String previousMappingsHash() {
+        var digest = MessageDigest.getInstance("SHA-256");
+        new TreeMap<>(previousMappings).forEach((loader, mappings) -> {
+            digest.update("${loader}\n".getBytes(StandardCharsets.UTF_8));
+            new TreeMap<>(mappings).forEach((original, relocated) -> digest.update("${original}\t${relocated}\n".getBytes(StandardCharsets.UTF_8)));
+            digest.update((byte) 0); // So a mapping can't pass for the next loader
+        });
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -1,123 +1,173 @@
 package io.github.pacifistmc.forgix.core;
 
-import io.github.pacifistmc.forgix.utils.JAR;
-import io.github.pacifistmc.forgix.utils.TinyClassWriter;
+import io.github.pacifistmc.forgix.core.resources.MixinIndex;
+import io.github.pacifistmc.forgix.core.resources.ResourceContext;
+import io.github.pacifistmc.forgix.core.resources.ResourceTransformers;
+import io.github.pacifistmc.forgix.utils.AsmRemapper;
+import io.github.pacifistmc.forgix.utils.ClassHierarchyIndex;
+import io.github.pacifistmc.forgix.utils.ClassReferences;
+import io.github.pacifistmc.forgix.utils.ContentSniffer;
+import io.github.pacifistmc.forgix.utils.InMemoryJar;
+import io.github.pacifistmc.forgix.utils.NameReplacer;
+import io.github.pacifistmc.forgix.utils.NestedJars;
 import net.fabricmc.tinyremapper.*;
 import net.fabricmc.tinyremapper.api.TrLogger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.ClassNode;
 import org.apache.commons.io.FilenameUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Predicate;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Relocates conflicting files in JARs.
  */
 public class Relocator {
-    private static final File tempDir = Files.createTempDirectory("forgix-tiny").toFile();
-    static {
-        tempDir.mustDeleteOnExit();
-    }
-
     /**
      * Relocates conflicting files in JARs.
      * @param relocationConfigs The relocationConfigs to process
+     * @param inMemory Whether to keep the relocated JARs in memory instead of writing them back to their files,
+     *                 use {@link RelocationConfig#getJar()} to get them afterward
+     * @param options How conflicts are found, null for the defaults
+     * @return How many class remap passes the conflicts would've needed if they were found one pass at a time
      */
-    public static void relocate(List<RelocationConfig> relocationConfigs) {
-        relocateClasses(relocationConfigs);
-        relocateResources(relocationConfigs);
+    public static int relocate(List<RelocationConfig> relocationConfigs, boolean inMemory = false, RelocationOptions options = null) {
+        int passes = relocateClasses(relocationConfigs, options);
+        // Another resource pass starts the mappings over, keep the class ones so they can still be written out afterward
+        List<Map<String, String>> classMappings = relocationConfigs.stream().map(config -> Map.copyOf(config.mappings)).toList();
+        relocateResources(relocationConfigs, options: options);
+        for (int i = 0; i < relocationConfigs.size(); i++) {
+            var mappings = relocationConfigs.get(i).mappings;
+            classMappings.get(i).forEach((originalPath, relocatedPath) -> {
+                if (originalPath.endsWith(".class")) mappings.putIfAbsent(originalPath, relocatedPath);
+            });
+        }
+        if (!inMemory) ForgixExecutor.current().forEach(relocationConfigs, config -> config.jar.save());
+        return passes;
     }
 
     /**
-     * Relocates conflicting classes in JARs.
+     * Relocates conflicting classes in JARs. <br>
+     * All the conflicts (including the ones caused by relocating other classes) are worked out up front by {@link ConflictAnalysis},
+     * so each JAR only gets remapped once.
+     * Only the classes that mention a relocated name are remapped at all, see {@link RelocationConfig#getSkippedClasses()}.
      * @param relocationConfigs The relocationConfigs to process
+     * @param options How conflicts are found, null for the defaults
+     * @return How many class remap passes the conflicts would've needed if they were found one pass at a time
      */
-    private static final Map<JarFile, Map<String, String>> mappingsSnapshot = new ConcurrentHashMap<>(); // Store a snapshot of the mappings so we can restore it at the end of all passes
-    public static void relocateClasses(List<RelocationConfig> relocationConfigs, boolean doAnotherPass = false) {
-        if (doAnotherPass || relocationConfigs.getFirst().tinyFile == null) generateMappings(relocationConfigs, !doAnotherPass); // Generate mappings if they don't exist
-
-        // Return if there are no new conflicts (no new class conflicts)
-        // This will return if there are no conflicts at all (empty mappings) or there are only resource conflicts which we're ignoring
-        if (doAnotherPass && relocationConfigs.parallelStream()
-                .flatMap(config -> config.getMappings().keySet().parallelStream())
-                .noneMatch(mapping -> mapping.endsWith(".class"))
-        ) {
-            relocationConfigs.parallelStream().forEach(config -> config.setMappings(mappingsSnapshot.get(config.getJarFile())));
-            return;
-        }
+    public static int relocateClasses(List<RelocationConfig> relocationConfigs, RelocationOptions options = null) {
+        int passes = relocationConfigs.getFirst().mapped ? 0 : generateMappings(relocationConfigs, options: options); // Generate mappings if they don't exist
 
-        // Process each JAR file in parallel
-        relocationConfigs.parallelStream().forEach(relocationConfig -> {
-            // Update mapping snapshot, merge with existing ones
-            // TODO: Make mappingsSnapshot faster, relocateResources needs access to class mappings and
-            //  doing multiple passes of class relocation resets the mappings so we need to store a snapshot of the mappings
-            //  in order to restore them at the end of all passes
-            mappingsSnapshot.computeIfAbsent(relocationConfig.getJarFile(), _ -> new ConcurrentHashMap<>());
-            mappingsSnapshot.computeIfPresent(relocationConfig.getJarFile(), (_, existingMap) -> {
-                existingMap.putAll(relocationConfig.mappings);
-                return existingMap;
+        // Process each JAR file in parallel, the remappers share the parallelism between them
+        var executor = ForgixExecutor.current();
+        int remapperThreads = Math.max(1, executor.parallelism / relocationConfigs.size());
+        boolean remapStrings = options != null && options.remapEngine == RelocationOptions.RemapEngine.ASM;
+        var profile = options == null ? RelocationOptions.Profile.RELEASE : options.profile;
+        executor.forEach(relocationConfigs, relocationConfig -> {
+            InMemoryJar jar = relocationConfig.jar;
+            Set<String> mappedNames = new HashSet<>();
+            relocationConfig.mappings.forEach((originalPath, _) -> {
+                if (!originalPath.endsWith(".class")) return;
+                mappedNames.add(originalPath.removeExtension());
+                if (remapStrings) mappedNames.add(originalPath.removeExtension().replace('/', '.')); // The name in a string constant
             });
+            var classes = jar.getClasses();
+            if (mappedNames.isEmpty()) { // Nothing to remap in this JAR
+                relocationConfig.setRemapStats(0, classes.size());
+                return;
+            }
 
-            // Create a tiny remapper with the mappings
-            IMappingProvider tinyMappings = TinyUtils.createTinyMappingProvider(relocationConfig.tinyFile.toPath(), "original", "relocated");
-            var logger = new ConsoleLogger(); logger.setLevel(TrLogger.Level.ERROR);
-            TinyRemapper tinyRemapper = TinyRemapper.newRemapper(logger).withMappings(tinyMappings).ignoreConflicts(true).fixPackageAccess(true).renameInvalidLocals(true).rebuildSourceFilenames(true).resolveMissing(true).build();
+            // A class can only change if its constant pool mentions a relocated name (its own name counts too),
+            // the rest are left alone so they're copied still compressed when the JAR is saved
+            Map<String, byte[]> affectedClasses = new ConcurrentHashMap<>();
+            executor.forEach(classes, name -> {
+                byte[] bytes = jar.read(name);
+                if (ClassReferences.refersTo(bytes, mappedNames::contains)) affectedClasses.put(name, bytes);
+            });
+            relocationConfig.setRemapStats(affectedClasses.size(), classes.size() - affectedClasses.size());
+            if (affectedClasses.isEmpty()) return;
 
-            // Get the paths
-            Path jarFilePath = Paths.get(relocationConfig.jarFile.getName());
-            Path tempJarFilePath = Paths.get(relocationConfig.jarFile.getName().setExtension("tmp"));
+            Map<String, byte[]> remappedClasses = remapStrings
+                    ? remapWithAsm(relocationConfig, affectedClasses)
+                    : remapWithTinyRemapper(relocationConfig, affectedClasses, remapperThreads, classpathIndexes(relocationConfig, options), profile.rebuildDebugInfo);
 
-            try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(tempJarFilePath).assumeArchive(true).build()) {
-                // Add the jar file as a target
-                outputConsumer.addNonClassFiles(jarFilePath);
-                tinyRemapper.readInputs(jarFilePath);
+            // The remapper gives us the new class names, so we need to know where each of them originally came from
+            Map<String, String> originalPaths = new HashMap<>();
+            relocationConfig.mappings.forEach((originalPath, relocatedPath) -> {
+                if (originalPath.endsWith(".class")) originalPaths.put(relocatedPath, originalPath);
+            });
 
-                // Apply the mappings
-                tinyRemapper.apply(outputConsumer);
-            } finally {
-                tinyRemapper.finish(); // Close the remapper
-            }
+            Map<String, String> renames = new HashMap<>();
+            remappedClasses.forEach((name, bytes) -> {
+                var path = "${name}.class";
+                var originalPath = originalPaths.getOrDefault(path, path);
+                if (!originalPath.equals(path)) renames.put(originalPath, path);
+                jar.write(originalPath, bytes);
+            });
+            jar.rename(renames);
+        });
 
-            // Close the original JAR file
-            relocationConfig.jarFile.close();
+        if (profile.verifyRemapping) verifyRemapping(relocationConfigs);
+        return passes;
+    }
 
-            // Replace the original JAR file with the relocated one
-            Files.move(tempJarFilePath, jarFilePath, StandardCopyOption.REPLACE_EXISTING); // TODO: Probably don't overwrite, update the jar location in relocation config instead. FIXME: Trying to update the jar location gives so many lambda bootstrap errors due to how cursed manifold is 😭
-        });
+    /**
+     * Checks that no class refers to a class that was relocated away from it, which would mean the remapper missed a reference. <br>
+     * Only type references are checked (not string constants), those are what the remappers have to get right.
+     * @throws IllegalStateException If any class still refers to an original name
+     */
+    private static void verifyRemapping(List<RelocationConfig> relocationConfigs) {
+        List<String> missed = Collections.synchronizedList(new ArrayList<>());
+        var executor = ForgixExecutor.current();
+        executor.forEach(relocationConfigs, relocationConfig -> {
+            Set<String> originalNames = new HashSet<>();
+            relocationConfig.mappings.forEach((originalPath, _) -> {
+                if (originalPath.endsWith(".class")) originalNames.add(originalPath.removeExtension());
+            });
+            if (originalNames.isEmpty()) return;
 
-        // Do multiple passes to handle possible conflicts created by the previous pass
-        // Example:
-        // ```
-        // class A {
-        //     public static Object get() {
-        //         return Minecraft.getInstance();
-        //     }
-        // }
-        // class B {
-        //     public static void use() {
-        //         System.out.println(A.get());
-        //     }
-        // }
-        // ```
-        // A will get remapped to `fabric.A` and `forge.A`, which will B call?
-        relocateClasses(relocationConfigs, true);
+            var jar = relocationConfig.jar;
+            executor.forEach(jar.getClasses(), name -> {
+                Set<String> references = new TreeSet<>();
+                var recorder = new Remapper() {
+                    @Override
+                    public String map(String internalName) {
+                        if (originalNames.contains(internalName)) references.add(internalName);
+                        return internalName;
+                    }
+                };
+                new ClassReader(jar.read(name)).accept(new ClassRemapper(new ClassNode(), recorder), 0);
+                references.forEach(reference -> missed.add("${relocationConfig.conflictPrefix}: ${name} still refers to ${reference}"));
+            });
+        });
+        if (!missed.isEmpty()) {
+            missed.sort(null);
+            var references = String.join("\n", missed);
+            throw new IllegalStateException("Remapping missed references to relocated classes:\n${references}");
+        }
     }
 
     /**
      * Relocates conflicting resources in JARs.
      * @param relocationConfigs The relocationConfigs to process
+     * @param options How conflicts are found, null for the defaults
      */
-    public static void relocateResources(List<RelocationConfig> relocationConfigs, boolean anotherPass = false) {
+    public static void relocateResources(List<RelocationConfig> relocationConfigs, boolean anotherPass = false, RelocationOptions options = null) {
         // Generate mappings if they don't exist or this is another pass
-        if (anotherPass || relocationConfigs.getFirst().tinyFile == null) generateMappings(relocationConfigs, !anotherPass);
+        if (anotherPass || !relocationConfigs.getFirst().mapped) generateMappings(relocationConfigs, !anotherPass, options);
 
         // Return if there are no new conflicts
 //        if (anotherPass && relocationConfigs.stream().allMatch(config -> config.mappings.isEmpty())) return;
@@ -127,115 +177,361 @@ public class Relocator {
                 .noneMatch(mapping -> !mapping.endsWith(".class") && !mapping.startsWith("META-INF/")) // Checking to see if there's any resource that isn't a class or META-INF, if there isn't then return
         ) return;
 
-        AtomicBoolean doAnotherPass = new AtomicBoolean(false);
+        // Everything one JAR needs for the rewrite, the results go in a slot per resource so nothing has to be locked
+        record JarWork(InMemoryJar jar, String[] resources, ResourceContext context, MixinIndex mixins, Map<String, ResourceContext> mixinContexts, Map<String, String> fileConflicts, byte[][] results) { }
 
-        // Process each JAR file in parallel
-        relocationConfigs.parallelStream().forEach(relocationConfig -> {
-            JarFile jarFile = JAR.isClosed(relocationConfig.jarFile) ? new JarFile(relocationConfig.jarFile.getName()) : relocationConfig.jarFile; // Reopen the JAR file if it's closed (it can be closed by the `relocateClasses` method)
+        var transformers = new ResourceTransformers(options == null ? List.of() : options.resourceTransformers);
+        int sniffLength = (options == null ? RelocationOptions.Profile.RELEASE : options.profile).sniffLength;
+        var executor = ForgixExecutor.current();
+        List<JarWork> work = executor.map(relocationConfigs, relocationConfig -> {
+            // Mixin configs are only parsed once, later passes just follow their renames
+            if (relocationConfig.mixinIndex == null) relocationConfig.mixinIndex = MixinIndex.of(relocationConfig.jar);
+            var mixins = relocationConfig.mixinIndex;
 
-            Set<JarEntry> resources = JAR.getResources(jarFile);
-            Map<JarEntry, String> contentMapping = new HashMap<>();
-
-            // Create a map of conflicts with path alterations.
-            Map<Predicate<String>, Map<String, String>> conflicts = new HashMap<>();
+            // Compile every form of every conflicting name into a single matcher, so each resource is only scanned once
+            NameReplacer replacer = new NameReplacer();
             Map<String, String> fileConflicts = new HashMap<>(); // Keep track of mixins to handle them specially
+            Map<String, String> otherMappings = new HashMap<>(); // Everything but mixins
+            Map<MixinIndex.MixinConfig, Map<String, String>> mixinMappings = new HashMap<>(); // Relocated mixins by the config they belong to
             relocationConfig.mappings.forEach((originalPath, relocatedPath) -> {
                 if (originalPath.endsWith("META-INF/MANIFEST.MF")) return; // Skip manifest
                 if (!originalPath.endsWith(".class") && !originalPath.startsWith("META-INF/services/")) { // Is a regular file conflict
                     fileConflicts.put(originalPath, relocatedPath);
                 }
+                // Mixins can only be referred to by their config and refmap, so they're only relocated in those
+                var owner = originalPath.endsWith(".class") ? mixins.owner(originalPath.removeExtension()) : null;
+                if (owner != null) {
+                    mixinMappings.computeIfAbsent(owner, _ -> new HashMap<>()).put(originalPath, relocatedPath);
+                    return;
+                }
+                otherMappings.put(originalPath, relocatedPath);
                 // replacing with `removeExtension()` would make the ones with extensions be replaced which is what we want
-                conflicts.put(content -> content.contains(originalPath.removeExtension()), Map.of(originalPath.removeExtension(), relocatedPath.removeExtension())); // Add the original path without the .class extension // the predicate should be _ -> true but for some reason that doesn't work
-                conflicts.put(_ -> originalPath.contains("/"), Map.of(originalPath.removeExtension().replace('/', '.'), relocatedPath.removeExtension().replace('/', '.'))); // If it's in a directory, add the original path without the .class extension and with dots instead of slashes
-                conflicts.put(_ -> originalPath.contains("/"), Map.of(originalPath.removeExtension().replace('/', '\\'), relocatedPath.removeExtension().replace('/', '\\'))); // If it's in a directory, add the original path without the .class extension and with backslashes instead of slashes
-                if (originalPath.endsWith(".class")) { // Is a class conflict
-                    conflicts.put(content -> content.contains("\"${originalPath.getPath().replace('/', '.')}\""), // look for the path with dots and in quotes (for mixins), example: "com.example.mod.mixins"
-                            Map.of("\"${originalPath.getBaseName().removeExtension()}\"", "\"${relocatedPath.getBaseName().removeExtension()}\"")); // Just the filename without the path & extension and in quotes (for mixins)
+                replacer.add(originalPath.removeExtension(), relocatedPath.removeExtension()); // Add the original path without the .class extension
+                if (originalPath.contains("/")) {
+                    replacer.add(originalPath.removeExtension().replace('/', '.'), relocatedPath.removeExtension().replace('/', '.')); // If it's in a directory, add the original path without the .class extension and with dots instead of slashes
+                    replacer.add(originalPath.removeExtension().replace('/', '\\'), relocatedPath.removeExtension().replace('/', '\\')); // If it's in a directory, add the original path without the .class extension and with backslashes instead of slashes
                 }
             });
+            replacer.compile();
 
-            resources.parallelStream().forEach(entry -> {
-                String content = JAR.getResource(jarFile, entry);
-                for (var conflict : conflicts.entrySet()) {
-                    // TODO: Smart replace
-                    //  If a file has "com.example.Meow" and "com.example.Meow2" and we're only replacing "com.example.Meow" then only replace all instances of "com.example.Meow" but not "com.example.Meow2"
-                    if (conflict.getKey().test(content)) {
-                        for (var replacement : conflict.getValue().entrySet()) {
-                            content = content.replace(replacement.getKey(), replacement.getValue());
-                        }
-                    }
-                }
-                contentMapping.put(entry, content);
-            });
+            // Only configs that something of theirs was relocated in are rewritten, and only refmaps of configs whose mixins were relocated
+            Map<String, ResourceContext> mixinContexts = new HashMap<>();
+            for (var config : mixins.getConfigs()) {
+                var ownMixins = mixinMappings.getOrDefault(config, Map.of());
+                boolean pathsRelocated = (config.refmap() != null && otherMappings.containsKey(config.refmap())) || (config.plugin() != null && otherMappings.containsKey("${config.plugin()}.class"));
+                if (ownMixins.isEmpty() && !pathsRelocated) continue;
+                Map<String, String> configMappings = new HashMap<>(otherMappings); // Refmaps can target any other relocated class
+                configMappings.putAll(ownMixins);
+                var context = new ResourceContext(configMappings, replacer);
+                mixinContexts.put(config.path(), context);
+                if (config.refmap() != null && !ownMixins.isEmpty()) mixinContexts.put(config.refmap(), context);
+            }
+
+            String[] resources = relocationConfig.jar.getResources().toArray(String[]::new);
+            Arrays.sort(resources); // So the results are always written in the same order
+            return new JarWork(relocationConfig.jar, resources, new ResourceContext(relocationConfig.mappings, replacer), mixins, mixinContexts, fileConflicts, new byte[resources.length][]);
+        });
 
-            doAnotherPass.set(JAR.writeResources(jarFile, contentMapping));
-            jarFile.close();
-            JAR.renameResources(jarFile.getName(), fileConflicts);
+        // One flat queue of (jar, resource) across all the JARs, so a single huge JAR is spread over every thread instead of getting just one
+        int[] offsets = new int[work.size() + 1];
+        for (int i = 0; i < work.size(); i++) offsets[i + 1] = offsets[i] + work.get(i).resources.length;
+        executor.forEachIndex(offsets[work.size()], index -> {
+            int jarIndex = Arrays.binarySearch(offsets, index);
+            if (jarIndex < 0) jarIndex = -jarIndex - 2; // Between two offsets, so it's in the JAR that starts before it
+            while (offsets[jarIndex + 1] == index) jarIndex++; // Skip JARs without resources
+            var jarWork = work.get(jarIndex);
+            int slot = index - offsets[jarIndex];
+            var jar = jarWork.jar;
+            var entry = jarWork.resources[slot];
+
+            if (jarWork.context.isEmpty()) return; // No conflicts in this JAR
+            var context = jarWork.context;
+            if (jarWork.mixins.isConfig(entry) || jarWork.mixins.isRefmap(entry)) {
+                context = jarWork.mixinContexts.get(entry);
+                if (context == null) return; // Nothing this config or refmap refers to was relocated, so it isn't even parsed
+            }
+            // Formats we know (mixin configs, access wideners, mod metadata, etc.) only have their names relocated where the format puts them
+            var transformer = transformers.find(entry, jarWork.mixins);
+            if (transformer != null) {
+                jarWork.results[slot] = transformer.transform(entry, jar.read(entry), context);
+                return;
+            }
+            if (ContentSniffer.isBinary(entry, () -> jar.open(entry), sniffLength)) return; // Textures, sounds, NBT, etc. can't be text replaced without corrupting them
+            // Streamed through the replacer so big resources are never turned into strings, and unchanged ones aren't kept at all
+            jarWork.results[slot] = jarWork.context.replaceNames(() -> jar.open(entry));
         });
 
+        // Every JAR that changed needs another pass, not just whichever one finished last
+        boolean doAnotherPass = false;
+        for (var jarWork : work) {
+            for (int slot = 0; slot < jarWork.resources.length; slot++) {
+                if (jarWork.results[slot] == null) continue;
+                jarWork.jar.write(jarWork.resources[slot], jarWork.results[slot]);
+                doAnotherPass = true;
+            }
+            jarWork.jar.rename(jarWork.fileConflicts);
+            jarWork.mixins.rename(jarWork.fileConflicts);
+        }
+
         // Do a multiple passes to handle conflicts that were created by the previous pass
-        if (doAnotherPass.get()) relocateResources(relocationConfigs, true);
+        if (doAnotherPass) relocateResources(relocationConfigs, true, options);
     }
 
     /**
      * Sets up the mappings for conflicting files in JARs.
      * @param relocationConfigs The relocationConfigs to process
      * @param append Isn't a good name, but we set it to false to check if we have any new conflicts,
-     *               setting it to false will ignore previous mappings and overwrite them,
-     *               but it will still append the mappings to the tiny file
+     *               setting it to false will ignore previous mappings and overwrite them
+     * @param options How conflicts are found, null for the defaults
+     * @return How many class remap passes the conflicts would've needed if they were found one pass at a time
      */
-    public static void generateMappings(List<RelocationConfig> relocationConfigs, boolean append = true) {
-        mapConflicts(relocationConfigs, append);
-        TinyClassWriter.write(relocationConfigs, tempDir);
+    public static int generateMappings(List<RelocationConfig> relocationConfigs, boolean append = true, RelocationOptions options = null) {
+        mapConflicts(relocationConfigs, append, options);
+        StableNames.keep(relocationConfigs, options); // What was relocated in the previous release stays relocated
+        int passes = ConflictAnalysis.closeOverReferences(relocationConfigs);
+        StableNames.reuse(relocationConfigs, options); // Under the same names as back then
+        relocationConfigs.forEach(config -> config.setMapped(true));
+        return passes;
     }
 
     /**
-     * Maps conflicting entries to their relocated paths.
-     * @param relocationConfigs The list of relocationConfigs to process
-     * @param append Whether to append to the existing mappings
+     * Gets the class hierarchy indexes of the classpath of a loader, they're only built the first time and then reused from the disk.
+     * @return The indexes, empty if there's no classpath for the loader
+     */
+    private static List<Path> classpathIndexes(RelocationConfig relocationConfig, RelocationOptions options) {
+        if (options == null) return List.of();
+        var classpath = options.classpath.get(relocationConfig.conflictPrefix);
+        if (classpath == null || classpath.isEmpty()) return List.of();
+        return ClassHierarchyIndex.of(classpath, options.hierarchyCacheDirectory);
+    }
+
+    /**
+     * Remaps classes with TinyRemapper, there are only class mappings so it doesn't need the skipped classes to resolve anything.
+     * @param classes The classes to remap by path, these are what's remapped even if the JAR on disk is different
+     * @param classpath The class hierarchy indexes of the loader's classpath, so inherited members are resolved against the real hierarchy
+     * @param rebuildDebugInfo Whether invalid locals are renamed and source file names are rebuilt, see {@link RelocationOptions.Profile#rebuildDebugInfo}
+     * @return The remapped classes by their new internal name
      */
-    private static void mapConflicts(List<RelocationConfig> relocationConfigs, boolean append = true) {
-        record FileInfo(String path, byte[] hash, RelocationConfig source) { }
-
-        // Map to store all relocationConfigs and their hashes grouped by path
-        Map<String, List<FileInfo>> filesByPath = new ConcurrentHashMap<>();
-
-        // Process each JAR file in parallel
-        relocationConfigs.parallelStream().forEach(file -> {
-            var jarFile = append ? file.jarFile : new JarFile(file.jarFile.getName()); // If we're not appending, we need to reopen the JAR file
-            var entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                var entry = entries.nextElement();
-                if (!entry.isDirectory()) {
-                    // Normalize the path to use forward slashes (JAR standard)
-                    String path = FilenameUtils.normalize(entry.getName(), true);
-                    byte[] hash = JAR.computeHash(jarFile, entry);
-
-                    filesByPath.compute(path, (_, existing) -> {
-                        var list = existing == null ? new ArrayList<FileInfo>() : existing;
-                        // Only add if the hash is different
-                        if (list.stream().noneMatch(info -> Arrays.equals(info.hash, hash)))
-                            list.add(new FileInfo(path, hash, file));
-                        return list;
-                    });
+    private static Map<String, byte[]> remapWithTinyRemapper(RelocationConfig relocationConfig, Map<String, byte[]> classes, int threads, List<Path> classpath, boolean rebuildDebugInfo) {
+        var logger = new ConsoleLogger(); logger.setLevel(TrLogger.Level.ERROR);
+        TinyRemapper tinyRemapper = TinyRemapper.newRemapper(logger).withMappings(createMappingProvider(relocationConfig)).ignoreConflicts(true).fixPackageAccess(true).renameInvalidLocals(rebuildDebugInfo).rebuildSourceFilenames(rebuildDebugInfo).resolveMissing(true).threads(threads).build();
+
+        // TinyRemapper only reads files, so the classes we already read go into a throwaway JAR, even when it's all of them
+        // (the JAR on disk doesn't know about anything that's been written to the in-memory JAR)
+        File selection = null;
+        Map<String, byte[]> remappedClasses = new ConcurrentHashMap<>();
+        try {
+            selection = Files.createTempFile("forgix-remap", ".jar").toFile();
+            try (var zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(selection)))) {
+                zos.setLevel(Deflater.NO_COMPRESSION); // It's read once right away
+                for (var entry : classes.entrySet()) {
+                    zos.putNextEntry(new ZipEntry(entry.getKey()));
+                    zos.write(entry.getValue());
+                    zos.closeEntry();
                 }
             }
-            if (!append) jarFile.close(); // Close the jar if we opened it
+
+            // Remap straight into memory
+            if (!classpath.isEmpty()) tinyRemapper.readClassPath(classpath.toArray(Path[]::new));
+            tinyRemapper.readInputs(selection.toPath());
+            tinyRemapper.apply(remappedClasses::put);
+        } finally {
+            tinyRemapper.finish(); // Close the remapper
+            if (selection != null) selection.deleteQuietly();
+        }
+        return remappedClasses;
+    }
+
+    /**
+     * Remaps classes with {@link AsmRemapper}, which also remaps string constants that are relocated class names.
+     * Every class is its own ClassReader to ClassWriter pass, so they're remapped in parallel.
+     * @param classes The classes to remap by path
+     * @return The remapped classes by their new internal name
+     */
+    private static Map<String, byte[]> remapWithAsm(RelocationConfig relocationConfig, Map<String, byte[]> classes) {
+        Map<String, String> classMappings = new HashMap<>();
+        relocationConfig.mappings.forEach((originalPath, relocatedPath) -> {
+            if (originalPath.endsWith(".class")) classMappings.put(originalPath.removeExtension(), relocatedPath.removeExtension());
+        });
+        var remapper = new AsmRemapper(classMappings);
+
+        Map<String, byte[]> remappedClasses = new ConcurrentHashMap<>();
+        ForgixExecutor.current().forEach(classes.entrySet(), entry -> {
+            var name = entry.getKey().removeExtension();
+            remappedClasses.put(classMappings.getOrDefault(name, name), remapper.remap(entry.getValue()));
+        });
+        return remappedClasses;
+    }
+
+    /**
+     * Feeds the class mappings of a config straight to TinyRemapper, so they don't have to be written to a tiny file and parsed again.
+     */
+    private static IMappingProvider createMappingProvider(RelocationConfig relocationConfig) {
+        return out -> relocationConfig.mappings.forEach((originalPath, relocatedPath) -> {
+            if (originalPath.endsWith(".class")) out.acceptClass(originalPath.removeExtension(), relocatedPath.removeExtension());
         });
+    }
+
+    private record FileInfo(String path, String name, long crc, long size, RelocationConfig source) { }
+
+    /**
+     * Maps conflicting entries to their relocated paths. <br>
+     * Entries are compared using the CRC-32 and size from the central directory, so they don't need to be decompressed.
+     * Only when those match for entries with the same path do we read them to make sure they really are the same, unless the profile trusts them, see {@link RelocationOptions.Profile#comparison}.
+     * With {@link RelocationOptions#isNormalizeBytecode()} classes that don't match are compared again without their debug info.
+     * Nested JARs that are the same library count as the same, even different builds of it as long as only debug info and build metadata differ, see {@link NestedJars}.
+     * With {@link RelocationOptions#isShareMajority()} the version most JARs have isn't relocated at all, only the others are.
+     * Resources can be kept, merged or fail the merge instead of being relocated, see {@link RelocationOptions#getConflictPolicies()}.
+     * @param relocationConfigs The list of relocationConfigs to process
+     * @param append Whether to append to the existing mappings
+     * @param options How conflicts are found, null for the defaults
+     */
+    private static void mapConflicts(List<RelocationConfig> relocationConfigs, boolean append = true, RelocationOptions options = null) {
+
+        // The jars keep the fingerprints of the entries we had to read, so later passes only read what the previous ones changed
+        Function<FileInfo, Long> checksum = fileInfo -> fileInfo.source.jar.getChecksum(fileInfo.name);
+        // Hashes of the classes without their debug info, only when they're compared by their normalized bytecode (nested JARs are always compared like this)
+        boolean normalizeBytecode = options != null && options.normalizeBytecode;
+        Function<FileInfo, String> normalizedHash = fileInfo -> {
+            try {
+                return fileInfo.source.jar.getNormalizedHash(fileInfo.name);
+            } catch (RuntimeException _) {
+                return "${fileInfo.source.conflictPrefix}:${fileInfo.name}"; // ASM can't read it, so it's only ever the same as itself
+            }
+        };
+        // What library a nested JAR is, only read for nested JARs whose bytes differ and kept by the jar for later passes
+        Function<FileInfo, Object> nestedJar = fileInfo -> {
+            try {
+                return fileInfo.source.jar.getNestedJar(fileInfo.name);
+            } catch (RuntimeException _) {
+                return fileInfo; // Not a JAR we can read, so it's only ever the same as itself
+            }
+        };
+        // How much the CRC-32 and size from the central directory are trusted, see the profile
+        BiPredicate<FileInfo, FileInfo> sameContent = switch ((options == null ? RelocationOptions.Profile.RELEASE : options.profile).comparison) {
+            case CRC -> (_, _) -> true;
+            case CHECKSUM -> (a, b) -> checksum.apply(a).equals(checksum.apply(b)); // The checksum rules out CRC-32 collisions
+            case BYTES -> (a, b) -> Arrays.equals(a.source.jar.read(a.name), b.source.jar.read(b.name));
+        };
+        BiPredicate<FileInfo, FileInfo> sameNestedJar = (a, b) -> {
+            if (!(nestedJar.apply(a) instanceof NestedJars.Library first) || !(nestedJar.apply(b) instanceof NestedJars.Library second)) return false;
+            if (first.equals(second)) return true; // A rebuild of the same library, only the timestamps, entry order or compression are different
+            // The same library with different entries, only then do we look inside to see whether it's just debug info and build metadata
+            return first.coordinates().equals(second.coordinates()) && normalizedHash.apply(a).equals(normalizedHash.apply(b));
+        };
+        BiPredicate<FileInfo, FileInfo> isSame = (a, b) -> {
+            if (a.crc == b.crc && a.size == b.size && sameContent.test(a, b)) return true;
+            if (NestedJars.isNestedJar(a.path)) return sameNestedJar.test(a, b);
+            // Only differs in debug info or constant pool order, so it behaves the same and doesn't need relocating
+            return normalizeBytecode && a.path.endsWith(".class") && normalizedHash.apply(a).equals(normalizedHash.apply(b));
+        };
+
+        // Group all entries by path, this only looks at the central directory
+        Map<String, List<FileInfo>> filesByPath = new LinkedHashMap<>();
+        for (var file : relocationConfigs) {
+            for (var name : file.jar.getNames()) {
+                if (InMemoryJar.isDirectory(name)) continue;
+                // Normalize the path to use forward slashes (JAR standard)
+                String path = FilenameUtils.normalize(name, true);
+                filesByPath.computeIfAbsent(path, _ -> new ArrayList<>()).add(new FileInfo(path, name, file.jar.getCrc(name), file.jar.getSize(name), file));
+            }
+        }
+
+        // Group the copies of each path that's in more than one JAR into the different versions of it, most paths are only in one so they're skipped right away
+        var sharedPaths = filesByPath.values().stream().filter(fileInfos -> fileInfos.size() > 1).toList();
+        List<List<List<FileInfo>>> conflicts = ForgixExecutor.current().map(sharedPaths, fileInfos -> {
+            List<List<FileInfo>> variants = new ArrayList<>();
+            for (var fileInfo : fileInfos) {
+                // Identical copies go together, they're compared against the first copy of each version
+                var same = variants.stream().filter(variant -> isSame.test(variant.getFirst(), fileInfo)).findFirst();
+                if (same.isPresent()) same.get().add(fileInfo);
+                else variants.add(new ArrayList<>(List.of(fileInfo)));
+            }
+            return variants;
+        }).stream().filter(variants -> variants.size() > 1).toList();
+
+        // Resources with any other policy than relocating are settled right away, so they never get mappings (or have their names looked for)
+        var policies = new ConflictPolicies(options == null ? Map.of() : options.conflictPolicies);
+        if (!policies.isEmpty()) conflicts = resolvePolicies(conflicts, policies);
 
         if (!append) { // remove all mappings from the relocation configs as we're not appending
             relocationConfigs.forEach(config -> config.setMappings(new HashMap<>()));
         }
 
-        // Create mappings for conflicts
-        filesByPath.forEach((_, fileInfos) -> {
-            // Return if there are no conflicts
-            if (fileInfos.size() <= 1) return;
+        // Create mappings for all relocationConfigs
+        boolean shareMajority = options != null && options.shareMajority;
+        conflicts.forEach(variants -> {
+            if (!shareMajority) { // The first copy of every version is relocated
+                variants.forEach(variant -> relocate(variant.getFirst(), variant.getFirst().source.conflictPrefix));
+                return;
+            }
 
-            // Create mappings for all relocationConfigs
-            fileInfos.forEach(fileInfo ->
-                fileInfo.source.mappings.putIfAbsent(fileInfo.path, fileInfo.path.addPrefixExtension(fileInfo.source.conflictPrefix))
-            );
+            // The version most JARs have stays where it is and is shared by all of them, ties go to the one that came first
+            var majority = variants.getFirst();
+            for (var variant : variants) {
+                if (variant.size() > majority.size()) majority = variant;
+            }
+            for (var variant : variants) {
+                if (variant == majority) continue;
+                // Every other version is relocated once, all its copies get the same name so they're still only kept once
+                var prefix = variant.getFirst().source.conflictPrefix;
+                variant.forEach(fileInfo -> relocate(fileInfo, prefix));
+            }
         });
     }
+
+    /**
+     * Settles the conflicts whose policy isn't relocating, see {@link ConflictPolicies}.
+     * Every JAR gets the version that's kept (or the merged one) written over its own, so they aren't conflicts anymore.
+     * @param conflicts The different versions of each conflicting path
+     * @return The conflicts that still have to be relocated
+     */
+    private static List<List<List<FileInfo>>> resolvePolicies(List<List<List<FileInfo>>> conflicts, ConflictPolicies policies) {
+        List<List<List<FileInfo>>> relocated = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (var variants : conflicts) {
+            var path = variants.getFirst().getFirst().path;
+            // Classes always have to be relocated, and the manifest and services are merged when the JARs are combined
+            if (path.endsWith(".class") || path.equals("META-INF/MANIFEST.MF") || path.startsWith("META-INF/services/")) {
+                relocated.add(variants);
+                continue;
+            }
+
+            var policy = policies.find(path);
+            switch (policy.strategy()) {
+                case RELOCATE -> relocated.add(variants);
+                case KEEP_FIRST -> keep(variants, variants.getFirst());
+                case KEEP_FROM -> keep(variants, variants.stream()
+                        .filter(variant -> variant.stream().anyMatch(fileInfo -> fileInfo.source.conflictPrefix.equals(policy.loader())))
+                        .findFirst().orElse(variants.getFirst())); // The loader doesn't have it, so it's the same as keeping the first
+                case MERGE -> {
+                    byte[] merged = ConflictPolicies.merge(path, variants.stream().map(variant -> variant.getFirst().source.jar.read(variant.getFirst().name)).toList());
+                    variants.forEach(variant -> variant.forEach(fileInfo -> fileInfo.source.jar.write(fileInfo.name, merged)));
+                }
+                case FAIL -> {
+                    var loaders = variants.stream().flatMap(List::stream).map(fileInfo -> fileInfo.source.conflictPrefix).collect(Collectors.joining(", "));
+                    failures.add("${path} (${loaders})");
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            var paths = String.join("\n", failures);
+            throw new IllegalStateException("These files are different between loaders and their conflict policy is fail:\n${paths}");
+        }
+        return relocated;
+    }
+
+    /**
+     * Writes the kept version over all the others.
+     */
+    private static void keep(List<List<FileInfo>> variants, List<FileInfo> kept) {
+        byte[] content = kept.getFirst().source.jar.read(kept.getFirst().name);
+        for (var variant : variants) {
+            if (variant != kept) variant.forEach(fileInfo -> fileInfo.source.jar.write(fileInfo.name, content));
+        }
+    }
+
+    private static void relocate(FileInfo fileInfo, String prefix) {
+        fileInfo.source.mappings.putIfAbsent(fileInfo.path, fileInfo.path.addPrefixExtension(prefix));
+    }
 }
@@ -0,0 +1,130 @@
+package io.github.pacifistmc.forgix.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarFile;
+
+/**
+ * Keeps relocated names the same from one release to the next. <br>
+ * Which entries conflict changes between releases, so if names only came from the conflict prefix, relocated classes would come and go with it,
+ * and every cache downstream (loader transformation caches, delta updates, artifact dedupe) would have to start over.
+ * Given the mappings the previous release shipped in `META-INF/forgix/`:
+ * - classes that were relocated back then stay relocated as long as they're still there, even if they don't conflict anymore
+ * - anything that's relocated again gets the exact name it had before
+ * <br><br>
+ * Only classes are kept stable, since the tiny files only have classes.
+ * What still changed is written out with {@link #diff}.
+ */
+public class StableNames {
+    private StableNames() { }
+
+    private static final String MAPPINGS_DIRECTORY = "META-INF/forgix/";
+
+    /**
+     * Reads the mappings a merged JAR was shipped with.
+     * @param previousRelease The merged JAR of the previous release
+     * @return The original paths to the relocated paths (e.g. `com/example/Meow.class` to `com/example/Meow_fabric.class`) by loader
+     */
+    public static Map<String, Map<String, String>> read(File previousRelease) {
+        Map<String, Map<String, String>> mappings = new HashMap<>();
+        try (var jarFile = new JarFile(previousRelease)) {
+            for (var entry : Collections.list(jarFile.entries())) {
+                var name = entry.getName();
+                // <jar>.<loader>.tiny right in the directory, multiversion has its own things in there
+                if (!name.startsWith(MAPPINGS_DIRECTORY) || !name.endsWith(".tiny") || name.indexOf('/', MAPPINGS_DIRECTORY.length()) != -1) continue;
+                try (var is = jarFile.getInputStream(entry)) {
+                    mappings.put(name.removeExtension().getExtension(), readTiny(is));
+                }
+            }
+        }
+        return mappings;
+    }
+
+    /**
+     * Reads the class mappings of a tiny file written by {@link io.github.pacifistmc.forgix.utils.TinyClassWriter}.
+     * @return The original paths to the relocated paths
+     */
+    public static Map<String, String> readTiny(InputStream is) {
+        Map<String, String> mappings = new HashMap<>();
+        var reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        for (var line = reader.readLine(); line != null; line = reader.readLine()) {
+            var parts = line.split("\t");
+            if (parts.length == 3 && parts[0].equals("c")) mappings.put("${parts[1]}.class", "${parts[2]}.class");
+        }
+        return mappings;
+    }
+
+    /**
+     * Relocates the classes that were relocated in the previous release again, as long as they're still there.
+     * This runs before {@link ConflictAnalysis#closeOverReferences} so whatever refers to them is taken care of too.
+     */
+    static void keep(List<RelocationConfig> relocationConfigs, RelocationOptions options) {
+        if (options == null || options.previousMappings.isEmpty()) return;
+        for (var config : relocationConfigs) {
+            var previous = options.previousMappings.get(config.conflictPrefix);
+            if (previous == null) continue;
+            previous.forEach((originalPath, relocatedPath) -> {
+                // Once it's been renamed the original is gone, so later passes don't add it again
+                if (config.jar.contains(originalPath) && !config.jar.contains(relocatedPath)) config.mappings.putIfAbsent(originalPath, relocatedPath);
+            });
+        }
+    }
+
+    /**
+     * Gives every relocated class the name it had in the previous release, unless that name is taken by now.
+     * This runs once all the mappings are known, so it also covers the ones {@link ConflictAnalysis} added.
+     */
+    static void reuse(List<RelocationConfig> relocationConfigs, RelocationOptions options) {
+        if (options == null || options.previousMappings.isEmpty()) return;
+        for (var config : relocationConfigs) {
+            var previous = options.previousMappings.get(config.conflictPrefix);
+            if (previous == null) continue;
+            Set<String> taken = new HashSet<>(config.mappings.values());
+            config.mappings.replaceAll((originalPath, relocatedPath) -> {
+                var stable = previous.get(originalPath);
+                if (stable == null || stable.equals(relocatedPath) || taken.contains(stable) || config.jar.contains(stable)) return relocatedPath;
+                taken.remove(relocatedPath);
+                taken.add(stable);
+                return stable;
+            });
+        }
+    }
+
+    /**
+     * Compares the final class mappings with the previous release's, the tiny files of the configs have to be written already.
+     * One line per change:
+     * ```
+     * fabric + com/example/Meow -> com/example/Meow_fabric
+     * fabric - com/example/Purr -> com/example/Purr_fabric
+     * forge ~ com/example/Hiss -> com/example/Hiss_forge (was com/example/Hiss_neoforge)
+     * ```
+     * `+` is newly relocated, `-` isn't relocated anymore and `~` got another name.
+     * @return The changes, sorted by loader and class, empty if the names are all the same
+     */
+    public static List<String> diff(Map<String, Map<String, String>> previousMappings, List<RelocationConfig> relocationConfigs) {
+        List<String> changes = new ArrayList<>();
+        Map<String, Map<String, String>> currentMappings = new TreeMap<>();
+        for (var config : relocationConfigs) {
+            try (var is = new FileInputStream(config.tinyFile)) {
+                currentMappings.put(config.conflictPrefix, readTiny(is));
+            }
+        }
+        previousMappings.keySet().forEach(loader -> currentMappings.putIfAbsent(loader, Map.of()));
+
+        currentMappings.forEach((loader, current) -> {
+            var previous = previousMappings.getOrDefault(loader, Map.of());
+            var originalPaths = new TreeSet<>(current.keySet());
+            originalPaths.addAll(previous.keySet());
+            for (var originalPath : originalPaths) {
+                var before = previous.get(originalPath);
+                var after = current.get(originalPath);
+                var name = originalPath.removeExtension();
+                if (before == null) changes.add("${loader} + ${name} -> ${after.removeExtension()}");
+                else if (after == null) changes.add("${loader} - ${name} -> ${before.removeExtension()}");
+                else if (!before.equals(after)) changes.add("${loader} ~ ${name} -> ${after.removeExtension()} (was ${before.removeExtension()})");
+            }
+        });
+        return changes;
+    }
+}
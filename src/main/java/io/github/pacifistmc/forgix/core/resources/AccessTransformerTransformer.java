@@ -0,0 +1,29 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Forge access transformers, e.g. `public-f com.example.Meow meow(Lcom/example/Purr;)V`. <br>
+ * Owners are dotted class names and members have descriptors.
+ */
+public class AccessTransformerTransformer extends LineTransformer {
+    public AccessTransformerTransformer() {
+        super(Pattern.compile("\\S+"));
+    }
+
+    @Override
+    public List<String> getGlobs() {
+        return List.of("META-INF/accesstransformer.cfg");
+    }
+
+    @Override
+    protected String map(String token, ResourceContext context) {
+        var mapped = context.mapClass(token);
+        if (mapped != null) return mapped;
+        int descriptor = token.indexOf('(');
+        if (descriptor == -1) return null;
+        mapped = context.mapDescriptor(token.substring(descriptor));
+        return mapped.equals(token.substring(descriptor)) ? null : token.substring(0, descriptor) + mapped;
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Fabric access wideners and class tweakers, e.g. `accessible method com/example/Meow meow (Lcom/example/Purr;)V`. <br>
+ * Owners are internal class names and members have descriptors, the header (`accessWidener v2 named`) is left alone.
+ */
+public class AccessWidenerTransformer extends LineTransformer {
+    public AccessWidenerTransformer() {
+        super(Pattern.compile("\\S+"));
+    }
+
+    @Override
+    public List<String> getGlobs() {
+        return List.of("*.accesswidener", "*.classtweaker");
+    }
+
+    @Override
+    protected boolean isHeader(String line) {
+        return line.startsWith("accessWidener") || line.startsWith("classTweaker");
+    }
+
+    @Override
+    protected String map(String token, ResourceContext context) {
+        var mapped = context.mapClass(token);
+        if (mapped != null) return mapped;
+        mapped = context.mapDescriptor(token);
+        return mapped.equals(token) ? null : mapped;
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * TOML and YAML mod and plugin metadata, e.g. `META-INF/mods.toml` or `plugin.yml`. <br>
+ * Only values that are exactly a relocated class (`main: com.example.Meow`) or path (`config = "modid.mixins.json"`) are relocated,
+ * keys, descriptions and the like never are.
+ */
+public class ConfigValueTransformer extends LineTransformer {
+    public ConfigValueTransformer() {
+        super(Pattern.compile("[^\\s\"'=:,\\[\\]{}]+")); // Anything between quotes, separators and brackets
+    }
+
+    @Override
+    public List<String> getGlobs() {
+        return List.of("META-INF/mods.toml", "META-INF/neoforge.mods.toml", "plugin.yml", "paper-plugin.yml", "bungee.yml");
+    }
+
+    @Override
+    protected String map(String token, ResourceContext context) {
+        var mapped = context.mapPath(token);
+        return mapped != null ? mapped : context.mapClass(token);
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.github.pacifistmc.forgix.utils.NameReplacer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Base for JSON formats. <br>
+ * The JSON is parsed to work out which strings are relocated, but only those strings are replaced in the original text,
+ * so the formatting, key order and comments of the file stay exactly as they were.
+ */
+public abstract class JsonValueTransformer implements ResourceTransformer {
+    /**
+     * Works out which strings of the JSON are relocated.
+     * @param root The parsed JSON
+     * @param context What the names are relocated to
+     * @param relocated Put the original strings and what they're relocated to in here, keys of objects count as strings as well
+     */
+    protected abstract void collect(JsonElement root, ResourceContext context, Map<String, String> relocated);
+
+    @Override
+    public byte[] transform(String path, byte[] content, ResourceContext context) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(new String(content, StandardCharsets.UTF_8));
+        } catch (JsonParseException e) {
+            return context.replaceNames(content); // Not valid JSON, so we can't know where the names are
+        }
+
+        Map<String, String> relocated = new HashMap<>();
+        collect(root, context, relocated);
+        if (relocated.isEmpty()) return null;
+
+        var replacer = new NameReplacer();
+        relocated.forEach((original, replacement) -> {
+            if (original.indexOf('"') != -1 || original.indexOf('\\') != -1) return; // Would be escaped in the file, names and paths never have these anyway
+            replacer.add("\"${original}\"", "\"${replacement}\"");
+        });
+        var replaced = replacer.compile().replace(content);
+        return replaced == content ? null : replaced;
+    }
+
+    /**
+     * Goes over every string value in the JSON, the keys of objects aren't included.
+     */
+    protected static void forEachString(JsonElement element, Consumer<String> action) {
+        if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) action.accept(element.getAsString());
+        else if (element.isJsonArray()) element.getAsJsonArray().forEach(child -> forEachString(child, action));
+        else if (element.isJsonObject()) element.getAsJsonObject().asMap().values().forEach(child -> forEachString(child, action));
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Base for line based formats. <br>
+ * Each line is split into tokens and every token is relocated on its own, comments (from a `#` at the start or after whitespace) are left alone.
+ * Everything between the tokens is kept as it is.
+ */
+public abstract class LineTransformer implements ResourceTransformer {
+    private final Pattern token;
+
+    /**
+     * @param token What a token looks like, everything else separates them
+     */
+    protected LineTransformer(Pattern token) {
+        this.token = token;
+    }
+
+    /**
+     * Relocates a token.
+     * @return The relocated token, or null if it isn't relocated
+     */
+    protected abstract String map(String token, ResourceContext context);
+
+    /**
+     * @return Whether a line is a header that shouldn't be relocated, no lines are by default
+     */
+    protected boolean isHeader(String line) {
+        return false;
+    }
+
+    @Override
+    public byte[] transform(String path, byte[] content, ResourceContext context) {
+        var text = new String(content, StandardCharsets.UTF_8);
+        var result = new StringBuilder(text.length() + 64);
+        boolean changed = false;
+        for (int lineStart = 0; lineStart < text.length(); ) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            lineEnd = lineEnd == -1 ? text.length() : lineEnd + 1;
+            var line = text.substring(lineStart, lineEnd);
+            lineStart = lineEnd;
+            if (isHeader(line)) {
+                result.append(line);
+                continue;
+            }
+
+            int comment = commentStart(line);
+            var matcher = token.matcher(line).region(0, comment);
+            int copiedUntil = 0;
+            while (matcher.find()) {
+                var mapped = map(matcher.group(), context);
+                if (mapped == null) continue;
+                result.append(line, copiedUntil, matcher.start()).append(mapped);
+                copiedUntil = matcher.end();
+                changed = true;
+            }
+            result.append(line, copiedUntil, line.length());
+        }
+        return changed ? result.toString().getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int commentStart(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '#' && (i == 0 || Character.isWhitespace(line.charAt(i - 1)))) return i;
+        }
+        return line.length();
+    }
+}
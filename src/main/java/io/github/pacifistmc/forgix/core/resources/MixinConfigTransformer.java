@@ -0,0 +1,49 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import com.google.gson.JsonElement;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Mixin configs, e.g. `modid.mixins.json`. <br>
+ * Mixins are listed relative to the `package` of the config, so a relocated mixin is only renamed in the lists if it's still in that package.
+ * The `plugin` class and the `refmap` path are relocated as well.
+ */
+public class MixinConfigTransformer extends JsonValueTransformer {
+    private static final List<String> MIXIN_LISTS = List.of("mixins", "client", "server");
+
+    @Override
+    public List<String> getGlobs() {
+        return List.of("*.mixins.json", "mixins.*.json");
+    }
+
+    @Override
+    protected void collect(JsonElement root, ResourceContext context, Map<String, String> relocated) {
+        if (!root.isJsonObject()) return;
+        var config = root.getAsJsonObject();
+
+        relocate(config.get("plugin"), context::mapClass, relocated);
+        relocate(config.get("refmap"), context::mapPath, relocated);
+
+        var packageElement = config.get("package");
+        if (packageElement == null || !packageElement.isJsonPrimitive()) return;
+        var mixinPackage = packageElement.getAsString() + ".";
+        for (var list : MIXIN_LISTS) {
+            var mixins = config.get(list);
+            if (mixins == null || !mixins.isJsonArray()) continue;
+            forEachString(mixins, mixin -> {
+                var relocatedMixin = context.mapClass(mixinPackage + mixin);
+                if (relocatedMixin != null && relocatedMixin.startsWith(mixinPackage)) relocated.put(mixin, relocatedMixin.substring(mixinPackage.length()));
+            });
+        }
+    }
+
+    private static void relocate(JsonElement element, UnaryOperator<String> mapper, Map<String, String> relocated) {
+        if (element == null || !element.isJsonPrimitive()) return;
+        var value = element.getAsString();
+        var mapped = mapper.apply(value);
+        if (mapped != null) relocated.put(value, mapped);
+    }
+}
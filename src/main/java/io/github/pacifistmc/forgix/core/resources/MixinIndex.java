@@ -0,0 +1,170 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.github.pacifistmc.forgix.utils.InMemoryJar;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+/**
+ * The mixin configs of a JAR, parsed once. <br>
+ * Configs are found through everything that can point a loader at them (`fabric.mod.json`, `quilt.mod.json`, `mods.toml` and the `MixinConfigs` manifest attribute)
+ * as well as by their usual names, so configs with unusual names are still found. Each config owns a mixin package and usually a refmap.
+ * <br><br>
+ * Everything in a mixin package is a mixin, and mixins can only be referred to by their config and refmap,
+ * so relocated mixins never have to be looked for in any other resource.
+ */
+public class MixinIndex {
+    private static final Pattern TOML_CONFIG = Pattern.compile("^\\s*config\\s*=\\s*[\"']([^\"']+)[\"']", Pattern.MULTILINE);
+    private static final ResourceTransformers GLOBS = new ResourceTransformers(List.of());
+
+    /**
+     * A mixin config.
+     * @param path The path of the config
+     * @param mixinPackage The package of its mixins as an internal name with a trailing slash, e.g. `com/example/mixin/`
+     * @param refmap The path of its refmap, null if it doesn't have one
+     * @param plugin The internal name of its plugin class, null if it doesn't have one
+     */
+    public record MixinConfig(String path, String mixinPackage, String refmap, String plugin) { }
+
+    private final Map<String, MixinConfig> configs = new HashMap<>(); // By path
+    private final Map<String, MixinConfig> refmaps = new HashMap<>(); // By refmap path
+    private final Map<String, MixinConfig> packages = new HashMap<>(); // By mixin package
+
+    private MixinIndex() { }
+
+    /**
+     * Finds and parses all mixin configs of a JAR.
+     */
+    public static MixinIndex of(InMemoryJar jar) {
+        Set<String> candidates = new TreeSet<>();
+        for (var resource : jar.getResources()) {
+            if (GLOBS.find(resource) instanceof MixinConfigTransformer) candidates.add(resource);
+        }
+        if (jar.contains("fabric.mod.json")) forEachString(parse(jar, "fabric.mod.json"), "mixins", "config", candidates::add);
+        if (jar.contains("quilt.mod.json")) forEachString(parse(jar, "quilt.mod.json"), "mixin", "config", candidates::add);
+        for (var modsToml : List.of("META-INF/mods.toml", "META-INF/neoforge.mods.toml")) {
+            if (!jar.contains(modsToml)) continue;
+            var matcher = TOML_CONFIG.matcher(jar.readString(modsToml));
+            while (matcher.find()) candidates.add(matcher.group(1));
+        }
+        if (jar.contains("META-INF/MANIFEST.MF")) {
+            try (var is = jar.open("META-INF/MANIFEST.MF")) {
+                var mixinConfigs = new Manifest(is).getMainAttributes().getValue("MixinConfigs");
+                if (mixinConfigs != null) Arrays.stream(mixinConfigs.split(",")).map(String::trim).filter(config -> !config.isEmpty()).forEach(candidates::add);
+            }
+        }
+
+        var index = new MixinIndex();
+        for (var path : candidates) {
+            if (!jar.contains(path)) continue;
+            var root = parse(jar, path);
+            if (root == null || !root.isJsonObject()) continue;
+            var config = root.getAsJsonObject();
+            var mixinPackage = config.get("package");
+            if (mixinPackage == null || !mixinPackage.isJsonPrimitive()) continue; // Not a mixin config after all
+            var refmap = config.get("refmap");
+            var plugin = config.get("plugin");
+            index.add(new MixinConfig(path, mixinPackage.getAsString().replace('.', '/') + "/",
+                    refmap != null && refmap.isJsonPrimitive() ? refmap.getAsString() : null,
+                    plugin != null && plugin.isJsonPrimitive() ? plugin.getAsString().replace('.', '/') : null));
+        }
+        return index;
+    }
+
+    private void add(MixinConfig config) {
+        configs.put(config.path, config);
+        if (config.refmap != null) refmaps.put(config.refmap, config);
+        packages.put(config.mixinPackage, config);
+    }
+
+    private static JsonElement parse(InMemoryJar jar, String path) {
+        try {
+            return JsonParser.parseString(jar.readString(path));
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Goes over a list of strings or objects with the path in a field, e.g. `"mixins": ["a.mixins.json", {"config": "b.mixins.json"}]`.
+     */
+    private static void forEachString(JsonElement root, String key, String objectKey, Consumer<String> action) {
+        if (root == null || !root.isJsonObject() || !root.getAsJsonObject().has(key)) return;
+        var element = root.getAsJsonObject().get(key);
+        for (var entry : element.isJsonArray() ? element.getAsJsonArray().asList() : List.of(element)) {
+            if (entry.isJsonPrimitive()) action.accept(entry.getAsString());
+            else if (entry.isJsonObject() && entry.getAsJsonObject().has(objectKey)) action.accept(entry.getAsJsonObject().get(objectKey).getAsString());
+        }
+    }
+
+    /**
+     * @return Whether there are no mixin configs
+     */
+    public boolean isEmpty() {
+        return configs.isEmpty();
+    }
+
+    /**
+     * @return All the mixin configs
+     */
+    public Collection<MixinConfig> getConfigs() {
+        return configs.values();
+    }
+
+    /**
+     * @return Whether a resource is a mixin config
+     */
+    public boolean isConfig(String path) {
+        return configs.containsKey(path);
+    }
+
+    /**
+     * @return Whether a resource is the refmap of a mixin config
+     */
+    public boolean isRefmap(String path) {
+        return refmaps.containsKey(path);
+    }
+
+    /**
+     * Finds the config a class belongs to.
+     * @param internalName The internal name of the class
+     * @return The config whose package the class is in, or null if it isn't a mixin
+     */
+    public MixinConfig owner(String internalName) {
+        // Mixin packages include their sub packages, so the closest one wins
+        for (int slash = internalName.lastIndexOf('/'); slash != -1; slash = internalName.lastIndexOf('/', slash - 1)) {
+            var config = packages.get(internalName.substring(0, slash + 1));
+            if (config != null) return config;
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether a class is in a mixin package
+     */
+    public boolean isMixin(String internalName) {
+        return owner(internalName) != null;
+    }
+
+    /**
+     * Moves configs and refmaps that were renamed.
+     * @param renameMap The map of old paths to new paths
+     */
+    public void rename(Map<String, String> renameMap) {
+        var renamed = new ArrayList<MixinConfig>();
+        for (var config : configs.values()) {
+            var path = renameMap.getOrDefault(config.path, config.path);
+            var refmap = config.refmap == null ? null : renameMap.getOrDefault(config.refmap, config.refmap);
+            renamed.add(new MixinConfig(path, config.mixinPackage, refmap, config.plugin));
+        }
+        configs.clear();
+        refmaps.clear();
+        packages.clear();
+        renamed.forEach(this::add);
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import com.google.gson.JsonElement;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON mod and plugin metadata, e.g. `fabric.mod.json`, `velocity-plugin.json` or the `META-INF/jarjar/metadata.json` of nested JARs. <br>
+ * Any value that's exactly a relocated class, entrypoint (`com.example.Meow::meow`) or path (mixin configs, access wideners, icons, nested JARs) is relocated,
+ * descriptions and the like are never touched.
+ */
+public class ModMetadataTransformer extends JsonValueTransformer {
+    @Override
+    public List<String> getGlobs() {
+        return List.of("fabric.mod.json", "quilt.mod.json", "velocity-plugin.json", "META-INF/jarjar/metadata.json");
+    }
+
+    @Override
+    protected void collect(JsonElement root, ResourceContext context, Map<String, String> relocated) {
+        forEachString(root, value -> {
+            var mapped = context.map(value);
+            if (mapped != null) relocated.put(value, mapped);
+        });
+    }
+}
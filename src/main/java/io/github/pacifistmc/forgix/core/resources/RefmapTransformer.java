@@ -0,0 +1,38 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import com.google.gson.JsonElement;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mixin refmaps, e.g. `modid-refmap.json`. <br>
+ * These are keyed by the internal names of the mixins and map references to targets like `Lcom/example/Meow;meow()V`,
+ * so keys and values are relocated as class names or descriptors.
+ */
+public class RefmapTransformer extends JsonValueTransformer {
+    @Override
+    public List<String> getGlobs() {
+        return List.of("*refmap.json");
+    }
+
+    @Override
+    protected void collect(JsonElement root, ResourceContext context, Map<String, String> relocated) {
+        if (root.isJsonPrimitive() && root.getAsJsonPrimitive().isString()) {
+            relocate(root.getAsString(), context, relocated);
+        } else if (root.isJsonArray()) {
+            root.getAsJsonArray().forEach(child -> collect(child, context, relocated));
+        } else if (root.isJsonObject()) {
+            root.getAsJsonObject().asMap().forEach((key, value) -> {
+                relocate(key, context, relocated);
+                collect(value, context, relocated);
+            });
+        }
+    }
+
+    private static void relocate(String value, ResourceContext context, Map<String, String> relocated) {
+        var mapped = context.mapClass(value);
+        if (mapped == null) mapped = context.mapDescriptor(value);
+        if (!mapped.equals(value)) relocated.put(value, mapped);
+    }
+}
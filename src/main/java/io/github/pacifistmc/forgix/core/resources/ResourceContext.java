@@ -0,0 +1,118 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import io.github.pacifistmc.forgix.utils.NameReplacer;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * What the names in the resources of a JAR are relocated to, handed to every {@link ResourceTransformer}. <br>
+ * Lookups are exact, so a transformer only relocates values that are a whole class name or path.
+ */
+public class ResourceContext {
+    private final Map<String, String> classes = new HashMap<>(); // Internal names, e.g. `com/example/Meow`
+    private final Map<String, String> dottedClasses = new HashMap<>(); // e.g. `com.example.Meow`
+    private final Map<String, String> paths = new HashMap<>();
+    private final NameReplacer replacer;
+
+    /**
+     * @param mappings The mappings of the JAR, original paths to relocated paths
+     * @param replacer The compiled generic replacer of the JAR, for {@link #replaceNames}
+     */
+    public ResourceContext(Map<String, String> mappings, NameReplacer replacer) {
+        this.replacer = replacer;
+        mappings.forEach((originalPath, relocatedPath) -> {
+            if (originalPath.endsWith(".class")) {
+                var original = originalPath.removeExtension();
+                var relocated = relocatedPath.removeExtension();
+                classes.put(original, relocated);
+                dottedClasses.put(original.replace('/', '.'), relocated.replace('/', '.'));
+            } else if (!originalPath.endsWith("META-INF/MANIFEST.MF")) {
+                paths.put(originalPath, relocatedPath);
+            }
+        });
+    }
+
+    /**
+     * @return Whether nothing in this JAR is relocated
+     */
+    public boolean isEmpty() {
+        return classes.isEmpty() && paths.isEmpty();
+    }
+
+    /**
+     * Relocates a class name.
+     * @param name An internal (`com/example/Meow`) or dotted (`com.example.Meow`) class name
+     * @return The relocated name in the same form, or null if it isn't relocated
+     */
+    public String mapClass(String name) {
+        var relocated = classes.get(name);
+        return relocated != null ? relocated : dottedClasses.get(name);
+    }
+
+    /**
+     * Relocates the path of a resource.
+     * @param path The path from the root of the JAR
+     * @return The relocated path, or null if it isn't relocated
+     */
+    public String mapPath(String path) {
+        return paths.get(path);
+    }
+
+    /**
+     * Relocates the classes in a descriptor, e.g. `(Lcom/example/Meow;)V` or `Lcom/example/Meow;meow()V`.
+     * @return The relocated descriptor, or the same instance if nothing in it is relocated
+     */
+    public String mapDescriptor(String descriptor) {
+        StringBuilder mapped = null;
+        int copiedUntil = 0;
+        for (int start = descriptor.indexOf('L'); start != -1; start = descriptor.indexOf('L', start + 1)) {
+            int end = descriptor.indexOf(';', start);
+            if (end == -1) break;
+            var relocated = classes.get(descriptor.substring(start + 1, end));
+            if (relocated == null) continue;
+            if (mapped == null) mapped = new StringBuilder(descriptor.length() + 16);
+            mapped.append(descriptor, copiedUntil, start + 1).append(relocated);
+            copiedUntil = end;
+            start = end;
+        }
+        if (mapped == null) return descriptor;
+        return mapped.append(descriptor, copiedUntil, descriptor.length()).toString();
+    }
+
+    /**
+     * Relocates a value that could be a path, a class name or a member of a class (`com.example.Meow::meow`, like fabric entrypoints).
+     * @return The relocated value, or null if it isn't relocated
+     */
+    public String map(String value) {
+        var relocated = mapPath(value);
+        if (relocated != null) return relocated;
+        relocated = mapClass(value);
+        if (relocated != null) return relocated;
+
+        int member = value.indexOf("::");
+        if (member == -1) return null;
+        relocated = mapClass(value.substring(0, member));
+        return relocated == null ? null : relocated + value.substring(member);
+    }
+
+    /**
+     * The generic text replacement, for formats a transformer couldn't parse.
+     * @return The content with the names replaced, or null if nothing was replaced
+     */
+    public byte[] replaceNames(byte[] content) {
+        var replaced = replacer.replace(content);
+        return replaced == content ? null : replaced;
+    }
+
+    /**
+     * The generic text replacement, streamed so big resources are never loaded as a whole when there's nothing to replace.
+     * @param content Opens the content, this is called at most twice
+     * @return The content with the names replaced, or null if nothing was replaced
+     */
+    public byte[] replaceNames(Supplier<InputStream> content) {
+        return replacer.replace(content);
+    }
+}
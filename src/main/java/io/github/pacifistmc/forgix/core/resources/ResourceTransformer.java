@@ -0,0 +1,32 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import java.util.List;
+
+/**
+ * Relocates the names in a resource format it understands. <br>
+ * Resources without a transformer go through the generic text replacement, which has to scan all of them for every conflicting name.
+ * A transformer instead knows where in its format names can actually be (entrypoints, mixin lists, access widener entries, etc.),
+ * so it only replaces those and doesn't touch anything that just happens to look like a name.
+ * <br><br>
+ * Transformers are picked by the first glob that matches, see {@link ResourceTransformers}.
+ * Third-party ones need a public no-args constructor so they can be loaded by their class name,
+ * and they're called from many threads at once so they must not keep any state between calls.
+ */
+public interface ResourceTransformer {
+    /**
+     * The paths this transformer claims. <br>
+     * `*` matches within a directory and `**` across directories,
+     * a glob without a `/` is matched against just the file name (so `*.mixins.json` matches in any directory).
+     * @return The globs, e.g. `*.mixins.json` or `META-INF/mods.toml`
+     */
+    List<String> getGlobs();
+
+    /**
+     * Relocates the names in a resource.
+     * @param path The path of the resource in the JAR
+     * @param content The content of the resource
+     * @param context What the names are relocated to
+     * @return The new content, or null if nothing changed
+     */
+    byte[] transform(String path, byte[] content, ResourceContext context);
+}
@@ -0,0 +1,88 @@
+package io.github.pacifistmc.forgix.core.resources;
+
+import io.github.pacifistmc.forgix.utils.PathGlob;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Picks the {@link ResourceTransformer} for a resource by its path. <br>
+ * Extra transformers are checked before the built-in ones, so a third-party transformer can take over a format Forgix already handles.
+ */
+public class ResourceTransformers {
+    private static final ResourceTransformer MIXIN_CONFIG = new MixinConfigTransformer();
+    private static final ResourceTransformer REFMAP = new RefmapTransformer();
+
+    /**
+     * The transformers Forgix comes with.
+     */
+    public static final List<ResourceTransformer> BUILT_IN = List.of(
+            MIXIN_CONFIG,
+            REFMAP,
+            new ModMetadataTransformer(),
+            new AccessWidenerTransformer(),
+            new AccessTransformerTransformer(),
+            new ConfigValueTransformer()
+    );
+
+    private record Glob(PathGlob glob, ResourceTransformer transformer) { }
+
+    private final List<Glob> globs = new ArrayList<>();
+
+    /**
+     * @param extraTransformers Transformers to check before the built-in ones
+     */
+    public ResourceTransformers(Collection<ResourceTransformer> extraTransformers) {
+        extraTransformers.forEach(this::register);
+        BUILT_IN.forEach(this::register);
+    }
+
+    private void register(ResourceTransformer transformer) {
+        for (var glob : transformer.getGlobs()) {
+            globs.add(new Glob(PathGlob.of(glob), transformer));
+        }
+    }
+
+    /**
+     * Finds the transformer that claims a resource.
+     * @param path The path of the resource in the JAR
+     * @return The transformer, or null if the resource should go through the generic text replacement
+     */
+    public ResourceTransformer find(String path) {
+        for (var glob : globs) {
+            if (glob.glob.matches(path)) return glob.transformer;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the transformer that claims a resource, mixin configs and refmaps are found through the index even if their names don't match.
+     * @param path The path of the resource in the JAR
+     * @param mixins The mixin configs of the JAR
+     * @return The transformer, or null if the resource should go through the generic text replacement
+     */
+    public ResourceTransformer find(String path, MixinIndex mixins) {
+        var transformer = find(path);
+        if (transformer != null && !BUILT_IN.contains(transformer)) return transformer; // Third-party transformers always come first
+        if (mixins.isConfig(path)) return MIXIN_CONFIG;
+        if (mixins.isRefmap(path)) return REFMAP;
+        return transformer;
+    }
+
+    /**
+     * Loads a third-party transformer.
+     * @param className The fully qualified name of the transformer class, it needs a public no-args constructor
+     * @param classLoader What to load the class with
+     */
+    public static ResourceTransformer load(String className, ClassLoader classLoader) {
+        Class<?> type;
+        try {
+            type = Class.forName(className, true, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Resource transformer ${className} isn't on the classpath", e);
+        }
+        if (!ResourceTransformer.class.isAssignableFrom(type)) throw new IllegalArgumentException("${className} doesn't implement ResourceTransformer");
+        return (ResourceTransformer) type.getDeclaredConstructor().newInstance();
+    }
+}
@@ -1,15 +1,24 @@
 package io.github.pacifistmc.forgix.plugin.configurations;
 
+import io.github.pacifistmc.forgix.core.ForgixExecutor;
+import io.github.pacifistmc.forgix.core.RelocationCache;
+import io.github.pacifistmc.forgix.core.RelocationOptions;
+import io.github.pacifistmc.forgix.utils.JarFilePool;
 import org.gradle.api.Action;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.Directory;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.file.RegularFileProperty;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -20,6 +29,19 @@ public class ForgixConfiguration {
     private final Property<String> archiveClassifier;
     private final Property<String> archiveVersion;
     private final Property<Directory> destinationDirectory;
+    private final Property<Boolean> relocationCache;
+    private final Property<Directory> cacheDirectory;
+    private final Property<Long> cacheMaxSize;
+    private final Property<String> executor;
+    private final Property<Integer> parallelism;
+    private final Property<Integer> maxOpenJars;
+    private final Property<String> profile;
+    private final Property<Boolean> normalizeBytecode;
+    private final Property<Boolean> shareMajority;
+    private final Property<String> remapEngine;
+    private final ListProperty<String> resourceTransformers;
+    private final RegularFileProperty previousRelease;
+    private final MapProperty<String, String> conflictPolicies;
     private final Map<String, MergeLoaderConfiguration> mergeConfigurations = new HashMap<>();
     public MultiversionConfiguration multiversionConfiguration;
 
@@ -35,6 +57,19 @@ public class ForgixConfiguration {
         this.archiveClassifier = objects.property(String.class);
         this.archiveVersion = objects.property(String.class);
         this.destinationDirectory = objects.directoryProperty();
+        this.relocationCache = objects.property(Boolean.class);
+        this.cacheDirectory = objects.directoryProperty();
+        this.cacheMaxSize = objects.property(Long.class);
+        this.executor = objects.property(String.class);
+        this.parallelism = objects.property(Integer.class);
+        this.maxOpenJars = objects.property(Integer.class);
+        this.profile = objects.property(String.class);
+        this.normalizeBytecode = objects.property(Boolean.class);
+        this.shareMajority = objects.property(Boolean.class);
+        this.remapEngine = objects.property(String.class);
+        this.resourceTransformers = objects.listProperty(String.class);
+        this.previousRelease = objects.fileProperty();
+        this.conflictPolicies = objects.mapProperty(String.class, String.class);
     }
 
     public Property<Boolean> getSilence() {
@@ -61,6 +96,61 @@ public class ForgixConfiguration {
         return destinationDirectory.convention(rootProject.getLayout().getBuildDirectory().dir("forgix"));
     }
 
+    public Property<Boolean> getRelocationCache() {
+        return relocationCache.convention(true);
+    }
+
+    public Property<Directory> getCacheDirectory() {
+        return cacheDirectory.convention(rootProject.getLayout().dir(rootProject.provider(() -> new File(rootProject.getGradle().getGradleUserHomeDir(), "caches/forgix"))));
+    }
+
+    public Property<Long> getCacheMaxSize() {
+        return cacheMaxSize.convention(RelocationCache.DEFAULT_MAX_SIZE / 1024 / 1024);
+    }
+
+    public Property<String> getExecutor() {
+        return executor.convention(ForgixExecutor.Type.PLATFORM.name().toLowerCase());
+    }
+
+    public Property<Integer> getParallelism() {
+        return parallelism.convention(ForgixExecutor.defaultParallelism());
+    }
+
+    public Property<Integer> getMaxOpenJars() {
+        return maxOpenJars.convention(JarFilePool.DEFAULT_MAX_OPEN);
+    }
+
+    // dev-fast, release or paranoid, the FORGIX_PROFILE environment variable picks one if it isn't set here
+    public Property<String> getProfile() {
+        return profile.convention(rootProject.getProviders().environmentVariable("FORGIX_PROFILE").orElse(RelocationOptions.Profile.RELEASE.toString()));
+    }
+
+    public Property<Boolean> getNormalizeBytecode() {
+        return normalizeBytecode.convention(false);
+    }
+
+    public Property<Boolean> getShareMajority() {
+        return shareMajority.convention(false);
+    }
+
+    public Property<String> getRemapEngine() {
+        return remapEngine.convention("tiny-remapper");
+    }
+
+    public ListProperty<String> getResourceTransformers() {
+        return resourceTransformers.convention(List.of());
+    }
+
+    // Globs of resources to what's done when they conflict, the first one that matches wins
+    public MapProperty<String, String> getConflictPolicies() {
+        return conflictPolicies.convention(Map.of());
+    }
+
+    // The merged jar of the previous release, so relocated classes keep their names
+    public RegularFileProperty getPreviousRelease() {
+        return previousRelease;
+    }
+
     // Fabric
 
     public void fabric(Action<? super MergeLoaderConfiguration> action) {
@@ -264,15 +354,22 @@ public class ForgixConfiguration {
     public static class MergeLoaderConfiguration {
         @SuppressWarnings("FieldMayBeFinal") // We use afterEvaluate so this can't be final
         private RegularFileProperty inputJar;
+        private final ConfigurableFileCollection classpath;
 
         @Inject
         public MergeLoaderConfiguration(ObjectFactory objects) {
             this.inputJar = objects.fileProperty();
+            this.classpath = objects.fileCollection();
         }
 
         public RegularFileProperty getInputJar() {
             return inputJar;
         }
+
+        // Minecraft and the loader's JARs, so inherited members are remapped against the real class hierarchy
+        public ConfigurableFileCollection getClasspath() {
+            return classpath;
+        }
     }
 
     // Multiversion stuff
@@ -1,10 +1,18 @@
 package io.github.pacifistmc.forgix.plugin.tasks;
 
 import io.github.pacifistmc.forgix.Forgix;
+import io.github.pacifistmc.forgix.core.ForgixExecutor;
+import io.github.pacifistmc.forgix.core.RelocationCache;
+import io.github.pacifistmc.forgix.core.RelocationOptions;
+import io.github.pacifistmc.forgix.core.StableNames;
+import io.github.pacifistmc.forgix.core.resources.ResourceTransformers;
 import io.github.pacifistmc.forgix.plugin.configurations.ForgixConfiguration;
 import io.github.pacifistmc.forgix.utils.GradleProjectUtils;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
@@ -12,6 +20,8 @@ import org.gradle.jvm.tasks.Jar;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import javax.inject.Inject;
 
@@ -27,6 +37,62 @@ public abstract class MergeJarsTask extends Jar {
     @Input
     public abstract Property<Boolean> getSilence();
 
+    @Input
+    public abstract Property<String> getProfile();
+
+    @Input
+    public abstract Property<Boolean> getNormalizeBytecode();
+
+    @Input
+    public abstract Property<Boolean> getShareMajority();
+
+    @Input
+    public abstract Property<String> getRemapEngine();
+
+    @Input
+    public abstract ListProperty<String> getResourceTransformers();
+
+    @Classpath
+    public abstract ConfigurableFileCollection getLoaderClasspath();
+
+    @Input
+    public abstract MapProperty<String, String> getConflictPolicies();
+
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getPreviousRelease();
+
+    // What relocated names changed since the previous release, only written when there is one
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getMappingsDiffFile();
+
+    // Only the classpath's class hierarchy indexes are cached in here
+    @Internal
+    public abstract DirectoryProperty getHierarchyCacheDirectory();
+
+    // The cache only makes merging faster, it doesn't change the merged jar
+    @Internal
+    public abstract Property<Boolean> getRelocationCache();
+
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+
+    @Internal
+    public abstract Property<Long> getCacheMaxSize();
+
+    // Neither does how many threads it uses
+    @Internal
+    public abstract Property<String> getExecutor();
+
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    // Or how many jars it keeps open
+    @Internal
+    public abstract Property<Integer> getMaxOpenJars();
+
     private final ForgixConfiguration settings = this.project.rootProject.extensions.getByType(ForgixConfiguration.class);
 
     @Inject
@@ -40,6 +106,22 @@ public abstract class MergeJarsTask extends Jar {
         // Initialize properties
         jarFileProjectMap.set(project.provider(this::createJarFileProjectMap));
         silence.set(settings.silence);
+        profile.set(settings.profile);
+        normalizeBytecode.set(settings.normalizeBytecode);
+        shareMajority.set(settings.shareMajority);
+        remapEngine.set(settings.remapEngine);
+        resourceTransformers.set(settings.resourceTransformers);
+        loaderClasspath.from(project.provider(() -> settings.mergeConfigurations.values().stream().map(ForgixConfiguration.MergeLoaderConfiguration::getClasspath).toList()));
+        conflictPolicies.set(settings.conflictPolicies);
+        previousRelease.set(settings.previousRelease);
+        mappingsDiffFile.set(project.layout.file(archiveFile.zip(previousRelease, (archive, _) -> Forgix.getMappingsDiffFile(archive.asFile))));
+        hierarchyCacheDirectory.set(new File(project.gradle.gradleUserHomeDir, "caches/forgix-hierarchy"));
+        relocationCache.set(settings.relocationCache);
+        cacheDirectory.set(settings.cacheDirectory);
+        cacheMaxSize.set(settings.cacheMaxSize);
+        executor.set(settings.executor);
+        parallelism.set(settings.parallelism);
+        maxOpenJars.set(settings.maxOpenJars);
 
         // Setup the input files collection to track the keys from the map
         inputJarFiles.setFrom(project.provider(() -> jarFileProjectMap.get().keySet()));
@@ -74,7 +156,23 @@ public abstract class MergeJarsTask extends Jar {
         }
 
         // Perform the merge operation
-        Forgix.mergeLoaders(jarMap, outputFile, silence.get());
+        var cache = relocationCache.get() ? new RelocationCache(cacheDirectory.get().asFile, cacheMaxSize.get() * 1024 * 1024) : null;
+        var options = new RelocationOptions();
+        options.setProfile(RelocationOptions.Profile.of(profile.get()));
+        options.setNormalizeBytecode(normalizeBytecode.get());
+        options.setShareMajority(shareMajority.get());
+        options.setRemapEngine(RelocationOptions.RemapEngine.of(remapEngine.get()));
+        resourceTransformers.get().forEach(className -> options.resourceTransformers.add(ResourceTransformers.load(className, MergeJarsTask.class.getClassLoader())));
+        settings.mergeConfigurations.forEach((name, config) -> {
+            if (!config.classpath.isEmpty()) options.classpath.put(name, List.copyOf(config.classpath.files));
+        });
+        options.setHierarchyCacheDirectory(hierarchyCacheDirectory.get().asFile);
+        options.setMaxOpenJars(maxOpenJars.get());
+        options.setConflictPolicies(new LinkedHashMap<>(conflictPolicies.get()));
+        if (previousRelease.isPresent()) options.setPreviousMappings(StableNames.read(previousRelease.get().asFile));
+        try (var forgixExecutor = ForgixExecutor.create(executor.get(), parallelism.get())) {
+            forgixExecutor.run(() -> Forgix.mergeLoaders(jarMap, outputFile, silence.get(), cache, options));
+        }
     }
 
     @Override
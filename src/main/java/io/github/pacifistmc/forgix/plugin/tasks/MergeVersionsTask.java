@@ -1,9 +1,11 @@
 package io.github.pacifistmc.forgix.plugin.tasks;
 
 import io.github.pacifistmc.forgix.Forgix;
+import io.github.pacifistmc.forgix.core.ForgixExecutor;
 import io.github.pacifistmc.forgix.plugin.configurations.ForgixConfiguration;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 import org.gradle.jvm.tasks.Jar;
 
@@ -16,6 +18,13 @@ public abstract class MergeVersionsTask extends Jar {
     @PathSensitive(PathSensitivity.NONE)
     public abstract ConfigurableFileCollection getInputJarFiles();
 
+    // How many threads are used doesn't change the merged jar
+    @Internal
+    public abstract Property<String> getExecutor();
+
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
     private final ForgixConfiguration settings = this.project.rootProject.extensions.getByType(ForgixConfiguration.class);
 
     @Inject
@@ -25,6 +34,8 @@ public abstract class MergeVersionsTask extends Jar {
         archiveClassifier.set(settings.archiveClassifier);
         archiveVersion.set(project.provider(() -> "${settings.archiveVersion.get()}-multi"));
         destinationDirectory.set(settings.destinationDirectory.get().dir("multiversion"));
+        executor.set(settings.executor);
+        parallelism.set(settings.parallelism);
 
         // Set up input files
         if (settings.multiversionConfiguration != null) inputJarFiles.setFrom(settings.multiversionConfiguration.inputJars);
@@ -44,7 +55,9 @@ public abstract class MergeVersionsTask extends Jar {
         }
 
         // Perform the merge operation
-        Forgix.mergeVersions(inputJarFiles.getFiles(), outputFile);
+        try (var forgixExecutor = ForgixExecutor.create(executor.get(), parallelism.get())) {
+            forgixExecutor.run(() -> Forgix.mergeVersions(inputJarFiles.getFiles(), outputFile));
+        }
     }
 
     @Override
@@ -0,0 +1,59 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renames classes with plain ASM, string constants included. <br>
+ * TinyRemapper only touches actual type references, so `Class.forName("com.example.Meow")`, mixin targets in annotations
+ * and the like still point at the old names. This remaps those in the same {@link ClassReader} to {@link ClassWriter} pass:
+ * a string constant (LDC, annotation value or field constant) that's exactly a relocated class name,
+ * with slashes or with dots, is replaced as well.
+ * <br><br>
+ * It only knows about class mappings, which is all relocation ever produces.
+ */
+public class AsmRemapper extends Remapper {
+    private final Map<String, String> classMappings;
+    private final Map<String, String> stringMappings = new HashMap<>();
+
+    /**
+     * @param classMappings Original internal names to relocated internal names, e.g. `com/example/Meow` to `com/example/Meow_fabric`
+     */
+    public AsmRemapper(Map<String, String> classMappings) {
+        this.classMappings = classMappings;
+        classMappings.forEach((original, relocated) -> {
+            stringMappings.put(original, relocated);
+            stringMappings.put(original.replace('/', '.'), relocated.replace('/', '.'));
+        });
+    }
+
+    /**
+     * Remaps a class.
+     * @param classBytes The class file
+     * @return The remapped class file
+     */
+    public byte[] remap(byte[] classBytes) {
+        var classWriter = new ClassWriter(0); // A fresh constant pool so the old names don't stick around in it
+        new ClassReader(classBytes).accept(new ClassRemapper(classWriter, this), 0);
+        return classWriter.toByteArray();
+    }
+
+    @Override
+    public String map(String internalName) {
+        return classMappings.get(internalName);
+    }
+
+    @Override
+    public Object mapValue(Object value) {
+        if (value instanceof String string) {
+            var relocated = stringMappings.get(string);
+            return relocated == null ? string : relocated;
+        }
+        return super.mapValue(value);
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.objectweb.asm.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A compact copy of a classpath JAR (Minecraft, loader APIs, etc.) with only what's needed to resolve the class hierarchy. <br>
+ * Every class keeps its access, super class, interfaces and its non-private fields and methods, everything else (code, debug info, annotations, resources) is dropped.
+ * That's usually a small fraction of the JAR, so TinyRemapper can read it on every pass without it costing much.
+ * <br><br>
+ * The index is cached on disk by the hash of the JAR, so it's built once and then shared by every pass and every build.
+ * Layout: `<directory>/<hash>.jar`.
+ */
+public class ClassHierarchyIndex {
+    private ClassHierarchyIndex() { }
+
+    private record FileStamp(String path, long length, long lastModified) { }
+
+    // Hashing a big JAR takes a while, so it's only done again when the file changed
+    private static final Map<FileStamp, String> HASHES = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the hierarchy index of a JAR, building it if it isn't cached yet.
+     * @param jar The classpath JAR
+     * @param directory The directory the indexes are cached in
+     * @return The index, a JAR of class stubs
+     */
+    public static Path of(File jar, File directory) {
+        var index = new File(directory, "${hash(jar)}.jar");
+        if (index.isFile()) return index.toPath();
+
+        directory.mkdirs();
+        var tempFile = File.createTempFile("forgix-hierarchy", ".tmp", directory);
+        try {
+            write(jar, tempFile);
+            Files.move(tempFile.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // Another build might be writing the same one
+        } finally {
+            tempFile.deleteQuietly();
+        }
+        return index.toPath();
+    }
+
+    /**
+     * Gets the indexes of all JARs of a classpath.
+     * @see #of(File, File)
+     */
+    public static List<Path> of(List<File> jars, File directory) {
+        return jars.stream().map(jar -> of(jar, directory)).toList();
+    }
+
+    /**
+     * The SHA-256 of a JAR as a hex string, remembered for as long as the file isn't modified.
+     */
+    public static String hash(File jar) {
+        var stamp = new FileStamp(jar.getAbsolutePath(), jar.length(), jar.lastModified());
+        return HASHES.computeIfAbsent(stamp, _ -> HexFormat.of().formatHex(JAR.computeHash(List.of(jar))));
+    }
+
+    private static void write(File jar, File target) {
+        try (var jarFile = new JarFile(jar);
+             var zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            var entries = Collections.list(jarFile.entries());
+            entries.sort(Comparator.comparing(ZipEntry::getName)); // So the same JAR always gives the same index
+            for (var entry : entries) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/")) continue; // No multi-release or module classes
+
+                byte[] stub;
+                try (var is = jarFile.getInputStream(entry)) {
+                    stub = stub(is.readAllBytes());
+                }
+                zos.putNextEntry(new ZipEntry(entry.getName()));
+                zos.write(stub);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Strips a class down to its hierarchy and its non-private members.
+     */
+    private static byte[] stub(byte[] classBytes) {
+        var classWriter = new ClassWriter(0);
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM9, classWriter) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                if ((access & Opcodes.ACC_PRIVATE) != 0) return null; // Can't be inherited or accessed from anywhere else
+                super.visitField(access, name, descriptor, null, null).visitEnd();
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if ((access & Opcodes.ACC_PRIVATE) != 0) return null;
+                super.visitMethod(access, name, descriptor, null, null).visitEnd(); // Without code
+                return null;
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return null;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return null;
+            }
+
+            @Override
+            public void visitAttribute(Attribute attribute) { }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Reads the class names a class file refers to straight out of its constant pool. <br>
+ * This doesn't look at anything past the constant pool, so it's a lot cheaper than going through ASM.
+ * The catch is that it can report names that aren't real references (e.g. a string that happens to look like a descriptor),
+ * which is fine for us since relocating a bit too much is harmless but relocating too little isn't.
+ */
+public class ClassReferences {
+    private ClassReferences() { }
+
+    /**
+     * Gets the internal names of all the classes a class refers to.
+     * @param classBytes The class file
+     * @param filter Only names matching this filter are returned (so we don't keep every string in the constant pool around)
+     * @return The referenced internal names, e.g. `com/example/Meow`
+     */
+    public static Set<String> of(byte[] classBytes, Predicate<String> filter) {
+        Set<String> references = new HashSet<>();
+        forEachUtf8(classBytes, utf8 -> {
+            anyName(utf8, name -> {
+                if (filter.test(name)) references.add(name);
+                return false; // Keep going, we want all of them
+            });
+            return true;
+        });
+        return references;
+    }
+
+    /**
+     * Checks whether a class refers to any of the given classes, this stops at the first one it finds.
+     * @param classBytes The class file
+     * @param filter Matches the internal names we're looking for
+     * @return Whether any of the names in the constant pool match
+     */
+    public static boolean refersTo(byte[] classBytes, Predicate<String> filter) {
+        return !forEachUtf8(classBytes, utf8 -> !anyName(utf8, filter));
+    }
+
+    /**
+     * Checks the names in a UTF-8 constant, class constants are plain internal names
+     * and descriptors & signatures look like `(Lcom/example/Meow;I)V` or `Ljava/util/List<Lcom/example/Meow;>;`
+     */
+    private static boolean anyName(String utf8, Predicate<String> filter) {
+        if (filter.test(utf8)) return true;
+        for (int start = utf8.indexOf('L'); start != -1; start = utf8.indexOf('L', start + 1)) {
+            int end = start + 1;
+            while (end < utf8.length() && utf8.charAt(end) != ';' && utf8.charAt(end) != '<') end++;
+            if (end == utf8.length() || end == start + 1) continue;
+            if (filter.test(utf8.substring(start + 1, end))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Walks the constant pool and hands every UTF-8 entry to the visitor.
+     * @param visitor Returns false to stop walking
+     * @return Whether the whole constant pool was walked
+     */
+    private static boolean forEachUtf8(byte[] classBytes, Predicate<String> visitor) {
+        var in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        in.skipBytes(8); // magic, minor_version, major_version
+        int count = in.readUnsignedShort();
+        for (int i = 1; i < count; i++) {
+            switch (in.readUnsignedByte()) {
+                case 1 -> { // Utf8
+                    if (!visitor.test(in.readUTF())) return false;
+                }
+                case 7, 8, 16, 19, 20 -> in.skipBytes(2); // Class, String, MethodType, Module, Package
+                case 15 -> in.skipBytes(3); // MethodHandle
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> in.skipBytes(4); // Integer, Float, Fieldref, Methodref, InterfaceMethodref, NameAndType, Dynamic, InvokeDynamic
+                case 5, 6 -> { // Long & Double take up two slots
+                    in.skipBytes(8);
+                    i++;
+                }
+                default -> throw new IllegalArgumentException("Invalid constant pool entry in class file");
+            }
+        }
+        return true;
+    }
+}
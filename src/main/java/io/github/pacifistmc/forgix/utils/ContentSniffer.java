@@ -0,0 +1,123 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Works out whether a resource is text or binary. <br>
+ * Binary resources (textures, sounds, NBT structures, nested JARs, etc.) can't refer to classes by name in a way we could safely replace,
+ * and replacing bytes in them could corrupt them, so they're left alone.
+ */
+public class ContentSniffer {
+    private ContentSniffer() { }
+
+    // How much of a resource we look at when the extension doesn't tell us anything
+    public static final int SNIFF_LENGTH = 1024;
+    // How much is read at a time, so sniffing a whole resource never holds more than this
+    private static final int CHUNK_LENGTH = 8192;
+
+    private static final Set<String> BINARY_EXTENSIONS = Set.of(
+            "png", "jpg", "jpeg", "gif", "bmp", "ico", "icns", "webp", "tga", "psd",
+            "ogg", "wav", "mp3", "flac",
+            "nbt", "dat", "mca", "schem", "schematic", "litematic",
+            "jar", "zip", "gz", "xz", "7z", "class",
+            "ttf", "otf", "woff", "woff2",
+            "so", "dll", "dylib", "jnilib", "exe", "bin"
+    );
+
+    private static final Set<String> TEXT_EXTENSIONS = Set.of(
+            "json", "json5", "jsonc", "mcmeta", "txt", "md", "lang", "properties", "toml", "cfg", "conf", "ini",
+            "xml", "yml", "yaml", "mf", "accesswidener", "classtweaker", "tiny", "srg", "tsrg", "mcfunction", "snbt",
+            "js", "fsh", "vsh", "gsh", "glsl", "csh", "html", "css", "csv"
+    );
+
+    // Magic bytes of binary formats that could also turn up without a telling extension
+    private static final byte[][] BINARY_MAGIC = {
+            { (byte) 0x89, 'P', 'N', 'G' }, // PNG
+            { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF }, // JPEG
+            { 'G', 'I', 'F', '8' }, // GIF
+            { 'O', 'g', 'g', 'S' }, // Ogg
+            { 'R', 'I', 'F', 'F' }, // WAV & WebP
+            { 'P', 'K', 3, 4 }, // ZIP & JAR
+            { 'P', 'K', 5, 6 }, // Empty ZIP
+            { 0x1F, (byte) 0x8B }, // GZIP, which is what most NBT files are
+            { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE }, // Class file
+            { 0x7F, 'E', 'L', 'F' } // Native library
+    };
+
+    /**
+     * Checks if a resource is binary. <br>
+     * The extension is checked first so most resources don't have to be opened at all,
+     * otherwise the start of the content is checked for magic bytes, NUL bytes and invalid UTF-8.
+     * @param name The name of the resource
+     * @param content Opens the content of the resource, this is only called if the extension isn't known
+     * @param sniffLength How much of the start of the content is checked, it's read in chunks so this can be the whole resource
+     * @return Whether the resource is binary
+     */
+    public static boolean isBinary(String name, Supplier<InputStream> content, int sniffLength = SNIFF_LENGTH) {
+        var extension = name.getExtension().toLowerCase(Locale.ROOT);
+        if (BINARY_EXTENSIONS.contains(extension)) return true;
+        if (TEXT_EXTENSIONS.contains(extension)) return false;
+
+        try (var is = content.get()) {
+            return isBinary(is, sniffLength);
+        }
+    }
+
+    /**
+     * Checks if the start of some content looks binary.
+     * @param head The first few bytes of the content
+     * @return Whether the content is binary
+     */
+    public static boolean isBinary(byte[] head) {
+        return isBinary(new ByteArrayInputStream(head), head.length);
+    }
+
+    /**
+     * Checks if the start of a stream looks binary, a chunk at a time so it stops at the first chunk that gives it away.
+     * @param sniffLength How much of the stream is checked at most
+     */
+    private static boolean isBinary(InputStream is, int sniffLength) {
+        // Anything that isn't valid UTF-8 would be mangled if we decoded and encoded it again, the end might cut a character in half which is fine
+        var decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        byte[] buffer = new byte[CHUNK_LENGTH + 3]; // Room for the start of a character the last chunk cut in half
+        var chars = CharBuffer.allocate(buffer.length);
+        int carried = 0;
+        for (int remaining = sniffLength; remaining > 0; ) {
+            int read = is.readNBytes(buffer, carried, Math.min(CHUNK_LENGTH, remaining));
+            if (read == 0) break;
+            if (remaining == sniffLength) { // The first chunk, which is where the magic bytes are
+                for (var magic : BINARY_MAGIC) {
+                    if (startsWith(buffer, read, magic)) return true;
+                }
+            }
+            remaining -= read;
+
+            for (int i = carried; i < carried + read; i++) {
+                if (buffer[i] == 0) return true; // Text files don't have NUL bytes
+            }
+            var bytes = ByteBuffer.wrap(buffer, 0, carried + read);
+            if (decoder.decode(bytes, chars.clear(), false).isError()) return true;
+            carried = bytes.remaining(); // A character that continues in the next chunk
+            System.arraycopy(buffer, bytes.position(), buffer, 0, carried);
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,406 @@
+package io.github.pacifistmc.forgix.utils;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A JAR that every relocation stage can read from and write to without going through the disk. <br>
+ * Entries nobody has touched are read straight from the JAR and everything that's been written or renamed lives in memory
+ * until the JAR is either saved or handed to {@link JAR#combineInMemoryJars}.
+ * The JAR itself is only opened while entries are being read, through a {@link JarFilePool}, so merging lots of JARs doesn't keep them all open.
+ * <br><br>
+ * The original entries are never listed again after they've been indexed, see {@link JarIndex}.
+ * Only the entries that were changed get an object of their own.
+ */
+public class InMemoryJar implements Closeable {
+    private final File file;
+    private final JarFilePool pool;
+    private final boolean ownsPool; // No pool was given, so this JAR has one of its own
+    private JarFilePool.Lease pinned; // Only if someone asked for the JarFile itself
+    private JarIndex index;
+    private Entry[] replaced; // Original entries that were written to, by id
+    private BitSet removed; // Original entries that were removed or renamed, by id
+    private final Map<String, Entry> added = new LinkedHashMap<>(); // New and renamed entries, these come after the original ones
+    private boolean modified; // Whether anything was written, renamed or removed since the JAR was loaded
+    // Fingerprints of entries that had to be read, they follow renames and are only dropped when the entry itself changes
+    private final Map<String, Long> checksums = new ConcurrentHashMap<>();
+    private final Map<String, String> normalizedHashes = new ConcurrentHashMap<>();
+    private final Map<String, NestedJars.Library> nestedJars = new ConcurrentHashMap<>();
+
+    /**
+     * An entry of the JAR.
+     * @param sourceId The id of the entry in the original JAR, -1 if the entry is new
+     * @param content The content of the entry, null if it hasn't been changed (so it's read from the original JAR)
+     * @param crc The CRC-32 of the content, for unchanged entries this comes straight from the central directory
+     * @param size The uncompressed size of the content
+     */
+    private record Entry(int sourceId, byte[] content, long crc, long size) { }
+
+    /**
+     * Opens a JAR file.
+     * @param file The JAR file
+     * @param pool Where the JAR is opened from, usually the one of the {@link io.github.pacifistmc.forgix.core.ForgixSession}, null to only keep this JAR open
+     */
+    public InMemoryJar(File file, JarFilePool pool = null) {
+        this.file = file;
+        this.ownsPool = pool == null;
+        this.pool = pool == null ? new JarFilePool(1) : pool;
+        load();
+    }
+
+    /**
+     * Opens the file of an already open JAR file. <br>
+     * The JAR file itself is never used or closed, it stays the caller's.
+     * @param source The JAR file
+     * @param pool Where the JAR is opened from, null to only keep this JAR open
+     */
+    public InMemoryJar(JarFile source, JarFilePool pool = null) {
+        this(new File(source.getName()), pool);
+    }
+
+    private void load() {
+        index = JarIndex.of(file);
+        replaced = new Entry[index.size()];
+        removed = new BitSet(index.size());
+        added.clear();
+        modified = false;
+    }
+
+    /**
+     * @return The file this JAR was loaded from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Opens the original JAR file this is backed by, it stays open until this is closed or saved.
+     * Only use this if you really need the JarFile, {@link #open} doesn't keep the JAR open.
+     * @return The original JAR file this is backed by
+     */
+    public synchronized JarFile getJarFile() {
+        if (pinned == null) pinned = pool.acquire(file);
+        return pinned.getJarFile();
+    }
+
+    /**
+     * @return The index of the original JAR file, it doesn't know about anything that's been changed since
+     */
+    public synchronized JarIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The names of all entries, including directories
+     */
+    public synchronized Set<String> getNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (int id = removed.nextClearBit(0); id < index.size(); id = removed.nextClearBit(id + 1)) names.add(index.name(id));
+        names.addAll(added.keySet());
+        return names;
+    }
+
+    /**
+     * Get all resources.
+     * These are not classes, these will be things like json, xml, txt, and other text files.
+     */
+    public synchronized Set<String> getResources() {
+        return collect(index.resourceIds(), name -> !isDirectory(name) && !name.endsWith(".class"));
+    }
+
+    /**
+     * Get all classes.
+     */
+    public synchronized Set<String> getClasses() {
+        return collect(index.classIds(), name -> !isDirectory(name) && name.endsWith(".class"));
+    }
+
+    private Set<String> collect(int[] ids, Predicate<String> addedFilter) {
+        Set<String> names = new HashSet<>();
+        for (int id : ids) {
+            if (!removed.get(id)) names.add(index.name(id));
+        }
+        added.keySet().stream().filter(addedFilter).forEach(names::add);
+        return names;
+    }
+
+    public static boolean isDirectory(String name) {
+        return name.endsWith("/");
+    }
+
+    public synchronized boolean contains(String name) {
+        return added.containsKey(name) || liveId(name) != -1;
+    }
+
+    /**
+     * Gets the CRC-32 of an entry without reading it.
+     */
+    public synchronized long getCrc(String name) {
+        return entry(name).crc;
+    }
+
+    /**
+     * Gets the uncompressed size of an entry without reading it.
+     */
+    public synchronized long getSize(String name) {
+        return entry(name).size;
+    }
+
+    /**
+     * @return The id of an original entry that's still there, or -1
+     */
+    private int liveId(String name) {
+        int id = index.id(name);
+        return id == -1 || removed.get(id) ? -1 : id;
+    }
+
+    /**
+     * @return The entry, or null if there's no such entry
+     */
+    private Entry entry(String name) {
+        var entry = added.get(name);
+        if (entry != null) return entry;
+        int id = liveId(name);
+        if (id == -1) return null;
+        return replaced[id] != null ? replaced[id] : original(id);
+    }
+
+    private Entry original(int id) {
+        return new Entry(id, null, index.crc(id), index.size(id));
+    }
+
+    /**
+     * Takes an entry out of the JAR.
+     * @return The entry, or null if there's no such entry
+     */
+    private Entry take(String name) {
+        var entry = added.remove(name);
+        if (entry != null) return entry;
+        int id = liveId(name);
+        if (id == -1) return null;
+        entry = replaced[id] != null ? replaced[id] : original(id);
+        replaced[id] = null;
+        removed.set(id);
+        return entry;
+    }
+
+    /**
+     * Gets the CRC-32C checksum of an entry, see {@link JAR#computeChecksum}. <br>
+     * It's only read the first time, relocation passes after that only read the entries they changed again.
+     */
+    public long getChecksum(String name) {
+        return checksums.computeIfAbsent(name, _ -> {
+            try (var is = open(name)) {
+                return JAR.computeChecksum(is);
+            }
+        });
+    }
+
+    /**
+     * Gets the hash of a class without its debug info as a hex string, see {@link JAR#computeNormalizedHash},
+     * or of a nested JAR without its build metadata, see {@link NestedJars#normalizedHash}. <br>
+     * It's only computed the first time, same as {@link #getChecksum}.
+     */
+    public String getNormalizedHash(String name) {
+        return normalizedHashes.computeIfAbsent(name, _ -> {
+            try (var is = open(name)) {
+                return NestedJars.isNestedJar(name) ? NestedJars.normalizedHash(is) : HexFormat.of().formatHex(JAR.computeNormalizedHash(is));
+            }
+        });
+    }
+
+    /**
+     * Gets what library a nested JAR is, see {@link NestedJars#read}. <br>
+     * The nested JAR is only read the first time, same as {@link #getChecksum}.
+     */
+    public NestedJars.Library getNestedJar(String name) {
+        return nestedJars.computeIfAbsent(name, _ -> {
+            try (var is = open(name)) {
+                return NestedJars.read(name, is);
+            }
+        });
+    }
+
+    private void forgetFingerprints(String name) {
+        checksums.remove(name);
+        normalizedHashes.remove(name);
+        nestedJars.remove(name);
+    }
+
+    /**
+     * Opens an entry for reading.
+     */
+    public InputStream open(String name) {
+        Entry entry;
+        String sourceName;
+        synchronized (this) {
+            entry = entry(name);
+            sourceName = entry == null || entry.content != null ? null : index.name(entry.sourceId);
+        }
+        if (entry == null) throw new FileNotFoundException("${name} does not exist in ${file.getName()}");
+        if (entry.content != null) return new ByteArrayInputStream(entry.content);
+        return pool.open(file, sourceName); // The JAR is only kept open until the stream is closed
+    }
+
+    /**
+     * Read an entry.
+     */
+    public byte[] read(String name) {
+        try (var is = open(name)) {
+            return is.readAllBytes();
+        }
+    }
+
+    /**
+     * Read an entry as a string.
+     */
+    public String readString(String name) {
+        try (var is = open(name)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Write an entry, the entry is created if it doesn't exist.
+     */
+    public void write(String name, byte[] content) {
+        var crc = new CRC32();
+        crc.update(content);
+        synchronized (this) {
+            var existing = added.get(name);
+            int id;
+            if (existing != null) added.put(name, new Entry(existing.sourceId, content, crc.getValue(), content.length));
+            else if ((id = liveId(name)) != -1) replaced[id] = new Entry(id, content, crc.getValue(), content.length); // Stays where it was
+            else added.put(name, new Entry(-1, content, crc.getValue(), content.length));
+            forgetFingerprints(name);
+            modified = true;
+        }
+    }
+
+    /**
+     * Rename entries.
+     * @param renameMap The map of entry names to rename.
+     */
+    public synchronized void rename(Map<String, String> renameMap) {
+        renameMap.forEach((from, to) -> {
+            var entry = take(from);
+            if (entry == null) return;
+            take(to); // Replaced by the renamed entry
+            added.put(to, entry);
+            moveFingerprint(checksums, from, to);
+            moveFingerprint(normalizedHashes, from, to);
+            moveFingerprint(nestedJars, from, to);
+            modified = true;
+        });
+    }
+
+    /**
+     * Removes entries.
+     * @param filter Entries matching this are removed
+     */
+    public synchronized void remove(Predicate<String> filter) {
+        for (int id = removed.nextClearBit(0); id < index.size(); id = removed.nextClearBit(id + 1)) {
+            if (!filter.test(index.name(id))) continue;
+            replaced[id] = null;
+            removed.set(id);
+            modified = true;
+        }
+        if (added.keySet().removeIf(filter)) modified = true;
+        checksums.keySet().removeIf(filter);
+        normalizedHashes.keySet().removeIf(filter);
+        nestedJars.keySet().removeIf(filter);
+    }
+
+    private static <T> void moveFingerprint(Map<String, T> fingerprints, String from, String to) {
+        var fingerprint = fingerprints.remove(from);
+        if (fingerprint != null) fingerprints.put(to, fingerprint);
+        else fingerprints.remove(to);
+    }
+
+    /**
+     * Writes the JAR back to the file it was loaded from. <br>
+     * This is a single sequential copy of the JAR, unchanged entries are copied still compressed and only the changed ones are compressed again.
+     * If nothing was changed then nothing is written at all.
+     */
+    public synchronized void save() {
+        if (!modified) return;
+        var tempFile = new File(file.getPath().setExtension("tmp"));
+        saveTo(tempFile);
+        unpin();
+        pool.invalidate(file); // The old handle would still see the old file
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        load();
+    }
+
+    /**
+     * Writes the JAR to another file, this JAR stays as it is.
+     * @param target The file to write to, it's overwritten if it exists
+     */
+    public synchronized void saveTo(File target) {
+        if (!modified) { // Nothing changed so it's just a copy
+            Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+
+        if (!index.isRawCopyable() || index.size() - removed.cardinality() + added.size() >= ZipRewriter.MAX_ENTRIES) { // ZIP64, so just rewrite everything
+            saveRecompressed(target);
+            return;
+        }
+        try (var zip = new ZipRewriter(target, file)) {
+            int now = ZipRewriter.dosTime();
+            forEachEntry((name, entry) -> {
+                if (entry.content == null) zip.copy(name, index, entry.sourceId); // Unchanged, renamed entries are also copied as they are
+                else zip.write(name, entry.content, entry.crc, entry.sourceId == -1 ? now : index.dosTime(entry.sourceId));
+            });
+        }
+    }
+
+    private void saveRecompressed(File target) {
+        try (var zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            for (var name : getNames()) {
+                zos.putNextEntry(new ZipEntry(name));
+                if (!isDirectory(name)) {
+                    try (var is = open(name)) {
+                        is.transferTo(zos);
+                    }
+                }
+                zos.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Goes over all entries in order, the original ones first.
+     */
+    private void forEachEntry(BiConsumer<String, Entry> action) {
+        for (int id = removed.nextClearBit(0); id < index.size(); id = removed.nextClearBit(id + 1)) {
+            action.accept(index.name(id), replaced[id] != null ? replaced[id] : original(id));
+        }
+        added.forEach(action);
+    }
+
+    private void unpin() {
+        if (pinned == null) return;
+        pinned.close();
+        pinned = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        unpin();
+        if (ownsPool) pool.close();
+        else pool.invalidate(file);
+    }
+}
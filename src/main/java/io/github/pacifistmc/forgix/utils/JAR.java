@@ -4,6 +4,8 @@ import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.model.FileHeader;
 import net.lingala.zip4j.model.ZipParameters;
 import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -16,6 +18,7 @@ import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -43,12 +46,27 @@ public class JAR {
      * @return The merged manifest as a string, it will contain all the attributes from all the JAR files without duplicates
      */
     public static String mergeManifests(Collection<File> jars, Map<Object, Object> extraManifestAttributes = null) {
+        var inMemoryJars = jars.stream().map(InMemoryJar::new).toList();
+        try {
+            return mergeInMemoryManifests(inMemoryJars, extraManifestAttributes);
+        } finally {
+            inMemoryJars.forEach(InMemoryJar::close);
+        }
+    }
+
+    /**
+     * Merges the manifests of multiple in-memory JARs.
+     * @param jars The collection of JARs to read the manifests from
+     * @return The merged manifest as a string, it will contain all the attributes from all the JARs without duplicates
+     */
+    public static String mergeInMemoryManifests(Collection<InMemoryJar> jars, Map<Object, Object> extraManifestAttributes = null) {
         Map<Object, Object> mergedAttributes = jars.stream()
                 .flatMap(jar -> {
-                    try (JarFile jarFile = new JarFile(jar)) {
-                        Manifest manifest = jarFile.getManifest();
-                        // If manifest doesn't exist or has no main attributes, skip it
-                        if (manifest == null || manifest.getMainAttributes() == null) return Stream.empty();
+                    if (!jar.contains(JarFile.MANIFEST_NAME)) return Stream.empty();
+                    try (var is = jar.open(JarFile.MANIFEST_NAME)) {
+                        Manifest manifest = new Manifest(is);
+                        // If manifest has no main attributes, skip it
+                        if (manifest.getMainAttributes() == null) return Stream.empty();
                         return manifest.getMainAttributes().entrySet().stream();
                     } catch (IOException _) {
                         return Stream.empty();
@@ -74,17 +92,25 @@ public class JAR {
      * @return Map containing the name of the service file and the content
      */
     public static Map<String, String> mergeServices(Collection<File> jars) {
+        var inMemoryJars = jars.stream().map(InMemoryJar::new).toList();
+        try {
+            return mergeInMemoryServices(inMemoryJars);
+        } finally {
+            inMemoryJars.forEach(InMemoryJar::close);
+        }
+    }
+
+    /**
+     * Merges all services of multiple in-memory JARs.
+     * @param jars The collection of JARs to read the services from
+     * @return Map containing the name of the service file and the content
+     */
+    public static Map<String, String> mergeInMemoryServices(Collection<InMemoryJar> jars) {
         return jars.stream()
-                .flatMap(jar -> {
-                    try (JarFile jarFile = new JarFile(jar)) {
-                        return Collections.list(jarFile.entries()).stream()
-                                .filter(entry -> entry.getName().startsWith("META-INF/services/"))
-                                .map(entry -> Map.entry(entry.getName(), getResource(jarFile, entry)))
-                                .toList().stream(); // This is needed to avoid closing the jarFile too early
-                    } catch (IOException _) {
-                        return Stream.empty();
-                    }
-                }).collect(Collectors.toMap(
+                .flatMap(jar -> jar.getNames().stream()
+                        .filter(name -> name.startsWith("META-INF/services/") && !InMemoryJar.isDirectory(name))
+                        .map(name -> Map.entry(name, jar.readString(name))))
+                .collect(Collectors.toMap(
                         Map.Entry::getKey,
                         Map.Entry::getValue,
                         (a, b) -> Stream.concat(
@@ -100,27 +126,43 @@ public class JAR {
      * @return A ByteArrayOutputStream containing the combined JAR data
      */
     public static ByteArrayOutputStream combineJars(Collection<File> jars, boolean mergeMetaInf = true, Map<Object, Object> extraManifestAttributes = null) {
+        var inMemoryJars = jars.stream().map(InMemoryJar::new).toList();
+        try {
+            return combineInMemoryJars(inMemoryJars, mergeMetaInf, extraManifestAttributes);
+        } finally {
+            inMemoryJars.forEach(InMemoryJar::close);
+        }
+    }
+
+    /**
+     * Combines the entries of multiple in-memory JARs into a ByteArrayOutputStream.
+     * This lets the relocated JARs go straight into the merged JAR without being written to disk first.
+     * @param jars The collection of JARs to process
+     * @return A ByteArrayOutputStream containing the combined JAR data
+     */
+    public static ByteArrayOutputStream combineInMemoryJars(Collection<InMemoryJar> jars, boolean mergeMetaInf = true, Map<Object, Object> extraManifestAttributes = null) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream(); // This holds the combined JAR data
         var fileSeen = new HashSet<>(); // Create a set to keep track of seen files
         try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-            for (File jar : jars) {
-                try (ZipFile zipFile = new ZipFile(jar)) { // Add all files from the JAR
-                    // Only add unseen files and skip manifest & services if we're merging them
-                    for (FileHeader header : zipFile.getFileHeaders()) {
-                        var name = header.getFileName();
-                        if (fileSeen.contains(name) || (mergeMetaInf && (name.equals("META-INF/MANIFEST.MF") || name.startsWith("META-INF/services/")))) continue;
-                        zos.putNextEntry(new ZipEntry(name));
-                        zos.write(zipFile.getInputStream(header).readAllBytes());
-                        zos.closeEntry();
-                        fileSeen.add(name);
+            for (InMemoryJar jar : jars) { // Add all files from the JAR
+                // Only add unseen files and skip manifest & services if we're merging them
+                for (var name : jar.getNames()) {
+                    if (fileSeen.contains(name) || (mergeMetaInf && (name.equals("META-INF/MANIFEST.MF") || name.startsWith("META-INF/services/")))) continue;
+                    zos.putNextEntry(new ZipEntry(name));
+                    if (!InMemoryJar.isDirectory(name)) {
+                        try (var is = jar.open(name)) {
+                            is.transferTo(zos);
+                        }
                     }
+                    zos.closeEntry();
+                    fileSeen.add(name);
                 }
             }
             if (mergeMetaInf) {
                 zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
-                zos.write(mergeManifests(jars, extraManifestAttributes).getBytes(StandardCharsets.UTF_8));
+                zos.write(mergeInMemoryManifests(jars, extraManifestAttributes).getBytes(StandardCharsets.UTF_8));
                 zos.closeEntry();
-                mergeServices(jars).forEach((name, content) -> {
+                mergeInMemoryServices(jars).forEach((name, content) -> {
                     zos.putNextEntry(new ZipEntry(name));
                     zos.write(content.getBytes(StandardCharsets.UTF_8));
                     zos.closeEntry();
@@ -165,19 +207,60 @@ public class JAR {
      * @return The hash of the entry
      */
     public static byte[] computeHash(JarFile jarFile, JarEntry entry) {
+        try (var is = jarFile.getInputStream(entry)) {
+            return computeHash(is);
+        }
+    }
+
+    /**
+     * Computes the hash of a stream.
+     * @param is The stream to compute the hash for, it's read until the end but not closed
+     * @return The hash of the stream
+     */
+    public static byte[] computeHash(InputStream is) {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         byte[] buffer = new byte[BUFFER_SIZE];
 
-        try (var is = jarFile.getInputStream(entry)) {
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, bytesRead);
         }
 
         return digest.digest();
     }
 
+    /**
+     * Computes the hash of a class as if it had been compiled without debug info. <br>
+     * The source file, line numbers and local variables are dropped and the constant pool is rebuilt from scratch,
+     * so two builds of the same class that only differ in those (or in the order of their constant pool) hash the same.
+     * @param is The class to compute the hash for, it's read until the end but not closed
+     * @return The hash of the normalized class
+     */
+    public static byte[] computeNormalizedHash(InputStream is) {
+        var classWriter = new ClassWriter(0); // Not copying the reader's constant pool is what puts it in a canonical order
+        new ClassReader(is).accept(classWriter, ClassReader.SKIP_DEBUG);
+        return MessageDigest.getInstance("SHA-256").digest(classWriter.toByteArray());
+    }
+
+    /**
+     * Computes a fast, non-cryptographic checksum of a stream.
+     * This uses CRC-32C which is hardware accelerated on most CPUs, so it's much cheaper than SHA-256.
+     * It's meant to be used together with the CRC-32 from the central directory, not on its own.
+     * @param is The stream to compute the checksum for, it's read until the end but not closed
+     * @return The checksum of the stream
+     */
+    public static long computeChecksum(InputStream is) {
+        CRC32C checksum = new CRC32C();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+            checksum.update(buffer, 0, bytesRead);
+        }
+
+        return checksum.getValue();
+    }
+
     /**
      * Get all resources in a JAR file.
      * These are not classes, these will be things like json, xml, txt, and other text files.
@@ -206,33 +289,6 @@ public class JAR {
         }
     }
 
-    /**
-     * Write a JAR resource
-     * @param jarFile The JAR file to write to.
-     * @param content Map of resource and content.
-     * @param onlyIfDifferent Only write the resource if the content is different. (Optional)
-     * @return Whether any resources were written.
-     */
-    public static boolean writeResources(JarFile jarFile, Map<JarEntry, String> content, boolean onlyIfDifferent = true) {
-        if (content.isEmpty()) return false; // Return if no content to write
-        Map<InputStream, JarEntry> writers = new HashMap<>(); // Create a map of writers and entries
-        content.forEach((entry, value) -> {
-            if (onlyIfDifferent && getResource(jarFile, entry).equals(value)) return; // Skip if we're supposed to only write differentable content
-            writers.put(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)), entry);
-        });
-        jarFile.close(); // Close the JAR file so we can write to it
-        try (ZipFile zipFile = new ZipFile(jarFile.getName())) {
-            // Add all writers to the ZIP
-            writers.forEach((is, entry) -> {
-                var params = new ZipParameters();
-                params.setFileNameInZip(entry.getName());
-                params.setOverrideExistingFilesInZip(true);
-                zipFile.addStream(is, params);
-            });
-        }
-        return !writers.isEmpty();
-    }
-
     /**
      * Add files to a JAR file.
      * @param jarFile The JAR file to add to.
@@ -260,18 +316,6 @@ public class JAR {
         }
     }
 
-    /**
-     * Rename resources in a JAR file.
-     * @param jarFilePath The path to the JAR file.
-     * @param fileRenameMap The map of file names to rename.
-     */
-    public static void renameResources(String jarFilePath, Map<String, String> fileRenameMap) {
-        if (fileRenameMap.isEmpty()) return;
-        try (ZipFile zipFile = new ZipFile(jarFilePath)) {
-            zipFile.renameFiles(fileRenameMap);
-        }
-    }
-
     /**
      * @return Is the JarFile closed?
      * @param jarFile The jar file to check
@@ -0,0 +1,175 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarFile;
+
+/**
+ * Keeps at most a handful of {@link JarFile}s open at once, shared by every {@link InMemoryJar} of a merge. <br>
+ * Merging a lot of platforms used to mean a file descriptor (and on Windows a file lock) for every JAR for the whole run.
+ * Now a JAR is only opened when an entry is actually read, and the least recently used handle nobody is reading from is closed once there are too many.
+ * <br><br>
+ * A handle is never closed while it's leased, so the limit is a soft one: if more JARs are being read at the same time than the limit,
+ * they all stay open until they're released.
+ * <br><br>
+ * Each {@link io.github.pacifistmc.forgix.core.ForgixSession} has a pool of its own, so merges running at the same time don't share a limit.
+ * Closing the pool closes every handle nobody is reading from, the rest are closed once they're released.
+ */
+public class JarFilePool implements Closeable {
+    public static final int DEFAULT_MAX_OPEN = 32;
+
+    private static final class Handle {
+        private final JarFile jarFile;
+        private int leases;
+        private boolean stale; // Dropped from the pool (e.g. the file was replaced), closed once the last lease is released
+
+        private Handle(JarFile jarFile) {
+            this.jarFile = jarFile;
+        }
+    }
+
+    // In access order, so the first idle handle is the least recently used one
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxOpen;
+
+    /**
+     * Creates a pool.
+     * @param maxOpen The most JARs that are kept open
+     */
+    public JarFilePool(int maxOpen = DEFAULT_MAX_OPEN) {
+        setMaxOpen(maxOpen);
+    }
+
+    /**
+     * A JAR that's open until this is closed.
+     */
+    public final class Lease implements Closeable {
+        private final Handle handle;
+        private boolean released;
+
+        private Lease(Handle handle) {
+            this.handle = handle;
+        }
+
+        public JarFile getJarFile() {
+            return handle.jarFile;
+        }
+
+        @Override
+        public void close() {
+            synchronized (JarFilePool.this) {
+                if (released) return;
+                released = true;
+                if (--handle.leases > 0) return;
+                if (handle.stale) handle.jarFile.close();
+                else trim();
+            }
+        }
+    }
+
+    /**
+     * @return The most JARs that are kept open
+     */
+    public synchronized int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /**
+     * Sets the most JARs that are kept open, idle ones above the new limit are closed right away.
+     */
+    public synchronized void setMaxOpen(int maxOpen) {
+        if (maxOpen < 1) throw new IllegalArgumentException("Max open JARs must be at least 1, got ${maxOpen}");
+        this.maxOpen = maxOpen;
+        trim();
+    }
+
+    /**
+     * @return How many JARs are open right now
+     */
+    public synchronized int openCount() {
+        return handles.size();
+    }
+
+    /**
+     * Opens a JAR, or reuses it if it's already open.
+     * @return The lease, the JAR stays open until it's closed
+     */
+    public synchronized Lease acquire(File file) {
+        var key = file.getAbsoluteFile();
+        var handle = handles.get(key);
+        if (handle == null) {
+            trim(maxOpen - 1); // Make room first, so we don't go over the limit even for a moment
+            handle = new Handle(new JarFile(key));
+            handles.put(key, handle);
+        }
+        handle.leases++;
+        return new Lease(handle);
+    }
+
+    /**
+     * Opens an entry of a JAR, the JAR is leased until the stream is closed.
+     * @param file The JAR file
+     * @param name The name of the entry
+     */
+    public InputStream open(File file, String name) {
+        var lease = acquire(file);
+        try {
+            var jarFile = lease.getJarFile();
+            var entry = jarFile.getEntry(name);
+            if (entry == null) throw new FileNotFoundException("${name} does not exist in ${file.getName()}");
+            return new FilterInputStream(jarFile.getInputStream(entry)) {
+                @Override
+                public void close() {
+                    try {
+                        super.close();
+                    } finally {
+                        lease.close();
+                    }
+                }
+            };
+        } catch (Throwable t) {
+            lease.close();
+            throw t;
+        }
+    }
+
+    /**
+     * Drops a JAR from the pool, e.g. because it's about to be replaced or nobody needs it anymore.
+     * It's closed right away if nobody is reading from it, otherwise once the last lease is released.
+     */
+    public synchronized void invalidate(File file) {
+        var handle = handles.remove(file.getAbsoluteFile());
+        if (handle != null) drop(handle);
+    }
+
+    /**
+     * Drops every JAR from the pool, see {@link #invalidate}.
+     */
+    @Override
+    public synchronized void close() {
+        handles.values().forEach(JarFilePool::drop);
+        handles.clear();
+    }
+
+    private static void drop(Handle handle) {
+        if (handle.leases == 0) handle.jarFile.close();
+        else handle.stale = true;
+    }
+
+    private void trim() {
+        trim(maxOpen);
+    }
+
+    /**
+     * Closes idle handles, least recently used first, until there are at most the given number open.
+     */
+    private void trim(int limit) {
+        var iterator = handles.values().iterator();
+        while (handles.size() > limit && iterator.hasNext()) {
+            var handle = iterator.next();
+            if (handle.leases > 0) continue;
+            iterator.remove();
+            handle.jarFile.close();
+        }
+    }
+}
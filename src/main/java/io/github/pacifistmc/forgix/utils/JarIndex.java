@@ -0,0 +1,250 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.jar.JarFile;
+
+/**
+ * Everything we need to know about the entries of a JAR, read once from its central directory. <br>
+ * Entry names are interned to int ids and everything else is kept in primitive arrays indexed by id,
+ * so there's no object per entry and looking an entry up is a single probe into a flat hash table.
+ * This keeps memory and lookups flat even for JARs with 50k+ entries, and every stage (conflict mapping,
+ * relocation, saving) shares the same index instead of listing the JAR again.
+ * <br><br>
+ * Ids are in central directory order, which is also the order the entries are in the file.
+ */
+public class JarIndex {
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+
+    private final String[] names;
+    private final int[] crcs; // CRC-32 as its raw bits
+    private final long[] sizes;
+    private final long[] compressedSizes;
+    private final long[] localHeaderOffsets;
+    private final int[] dosTimes;
+    private final short[] methods;
+    private final short[] flags;
+    private final BitSet directories;
+    private final BitSet classes;
+    private final int[] table; // Open addressing, holds id + 1 so 0 means empty
+    private final boolean rawCopyable;
+    private int count;
+
+    private JarIndex(int capacity, boolean rawCopyable) {
+        this.names = new String[capacity];
+        this.crcs = new int[capacity];
+        this.sizes = new long[capacity];
+        this.compressedSizes = new long[capacity];
+        this.localHeaderOffsets = new long[capacity];
+        this.dosTimes = new int[capacity];
+        this.methods = new short[capacity];
+        this.flags = new short[capacity];
+        this.directories = new BitSet(capacity);
+        this.classes = new BitSet(capacity);
+        this.table = new int[Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1]; // At most half full
+        this.rawCopyable = rawCopyable;
+    }
+
+    /**
+     * Indexes a JAR.
+     * @param file The JAR file
+     * @return The index, ZIP64 JARs are indexed through {@link JarFile} instead and can't be raw copied, see {@link #isRawCopyable()}
+     */
+    public static JarIndex of(File file) {
+        var index = readCentralDirectory(file);
+        if (index != null) return index;
+
+        try (var jarFile = new JarFile(file)) {
+            var fallback = new JarIndex(jarFile.size(), false);
+            jarFile.stream().forEach(entry -> fallback.add(entry.getName(), (int) entry.getCrc(), entry.getSize(), entry.getCompressedSize(), -1, 0, entry.getMethod(), 0));
+            return fallback;
+        }
+    }
+
+    /**
+     * Reads the central directory of a ZIP file. <br>
+     * {@link java.util.zip.ZipFile} doesn't tell us where the entries are, so we have to do it ourselves.
+     * @return The index, or null if the file uses ZIP64
+     */
+    private static JarIndex readCentralDirectory(File file) {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The end of central directory record is at the end, after a comment of up to 64KB
+            long size = channel.size();
+            int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_LENGTH + 0xFFFF);
+            var tail = read(channel, size - tailLength, tailLength);
+            int end = -1;
+            for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) throw new IllegalStateException("${file.getName()} is not a valid ZIP file");
+
+            int entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+            long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+            if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) return null; // ZIP64
+
+            var directory = read(channel, directoryOffset, (int) directorySize);
+            var index = new JarIndex(entryCount, true);
+            for (int i = 0, position = 0; i < entryCount; i++) {
+                if (directory.getInt(position) != CENTRAL_HEADER) throw new IllegalStateException("${file.getName()} has an invalid central directory");
+                int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+                int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+                int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+                long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+                long uncompressedSize = Integer.toUnsignedLong(directory.getInt(position + 24));
+                long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+                if (compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) return null; // ZIP64
+
+                index.add(new String(directory.array(), position + CENTRAL_HEADER_LENGTH, nameLength, StandardCharsets.UTF_8),
+                        directory.getInt(position + 16), uncompressedSize, compressedSize, localHeaderOffset,
+                        directory.getInt(position + 12), Short.toUnsignedInt(directory.getShort(position + 10)), Short.toUnsignedInt(directory.getShort(position + 8)));
+                position += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+            }
+            return index;
+        }
+    }
+
+    private void add(String name, int crc, long size, long compressedSize, long localHeaderOffset, int dosTime, int method, int flag) {
+        if (id(name) != -1) return; // Duplicate entries, only the first one counts
+        int id = count++;
+        names[id] = name;
+        crcs[id] = crc;
+        sizes[id] = size;
+        compressedSizes[id] = compressedSize;
+        localHeaderOffsets[id] = localHeaderOffset;
+        dosTimes[id] = dosTime;
+        methods[id] = (short) method;
+        flags[id] = (short) flag;
+        if (name.endsWith("/")) directories.set(id);
+        else if (name.endsWith(".class")) classes.set(id);
+
+        int mask = table.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16); // String hashes are weak in the low bits
+    }
+
+    /**
+     * @return The number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Looks up an entry.
+     * @param name The name of the entry
+     * @return The id of the entry, or -1 if there's no such entry
+     */
+    public int id(String name) {
+        int mask = table.length - 1;
+        for (int slot = mix(name.hashCode()) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (names[id].equals(name)) return id;
+        }
+        return -1;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public long crc(int id) {
+        return Integer.toUnsignedLong(crcs[id]);
+    }
+
+    /**
+     * @return The uncompressed size of an entry
+     */
+    public long size(int id) {
+        return sizes[id];
+    }
+
+    public long compressedSize(int id) {
+        return compressedSizes[id];
+    }
+
+    /**
+     * @return Where the local header of an entry starts, -1 if the index isn't {@link #isRawCopyable()}
+     */
+    public long localHeaderOffset(int id) {
+        return localHeaderOffsets[id];
+    }
+
+    /**
+     * @return The last modified time of an entry in MS-DOS format
+     */
+    public int dosTime(int id) {
+        return dosTimes[id];
+    }
+
+    /**
+     * @return The compression method of an entry, 0 for stored and 8 for deflated
+     */
+    public int method(int id) {
+        return methods[id];
+    }
+
+    /**
+     * @return The general purpose flags of an entry
+     */
+    public int flags(int id) {
+        return Short.toUnsignedInt(flags[id]);
+    }
+
+    public boolean isDirectory(int id) {
+        return directories.get(id);
+    }
+
+    public boolean isClass(int id) {
+        return classes.get(id);
+    }
+
+    /**
+     * @return The ids of all classes
+     */
+    public int[] classIds() {
+        return classes.stream().toArray();
+    }
+
+    /**
+     * @return The ids of all resources (everything that isn't a class or a directory)
+     */
+    public int[] resourceIds() {
+        var resources = (BitSet) classes.clone();
+        resources.or(directories);
+        resources.flip(0, count);
+        return resources.stream().toArray();
+    }
+
+    /**
+     * Whether the compressed data of the entries can be copied straight out of the file with {@link ZipRewriter#copy}. <br>
+     * It can't for ZIP64 files, we don't know where their entries are.
+     */
+    public boolean isRawCopyable() {
+        return rawCopyable;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) throw new IllegalStateException("Unexpected end of ZIP file");
+        }
+        return buffer.flip();
+    }
+}
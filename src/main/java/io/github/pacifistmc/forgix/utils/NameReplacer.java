@@ -0,0 +1,286 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Replaces many names in a string at once. <br>
+ * All names are compiled into a single Aho-Corasick automaton, so a string is only scanned once no matter how many names there are.
+ * Names only match on identifier boundaries, so replacing `com.example.Meow` leaves `com.example.Meow2` alone.
+ * When names overlap the longest one wins, so `com/example/Meow$Inner` is replaced as a whole if it has a replacement.
+ * <br><br>
+ * The automaton works on the UTF-8 bytes, so content can be streamed through it without ever being decoded.
+ * <br><br>
+ * Usage: {@link #add} all the names, {@link #compile()} and then {@link #replace} as many strings as you want (from any thread).
+ */
+public class NameReplacer {
+    private final List<byte[]> patterns = new ArrayList<>();
+    private final List<byte[]> replacements = new ArrayList<>();
+    private final Map<String, Integer> patternIndices = new HashMap<>();
+    private int maxPatternLength;
+
+    // The compiled automaton, every node has a sorted set of transitions
+    private byte[][] transitionBytes;
+    private int[][] transitionTargets;
+    private int[] fail;
+    private int[] output; // Pattern that ends at this node, -1 if none
+    private int[] outputLink; // Next node in the fail chain that has an output, -1 if none
+
+    /**
+     * A name found by {@link #find}.
+     * @param start The offset of the first byte of the name
+     * @param pattern The index of the name
+     */
+    public record Match(long start, int pattern) { }
+
+    /**
+     * Adds a name to replace.
+     * If the name was already added then the first replacement is kept.
+     */
+    public NameReplacer add(String pattern, String replacement) {
+        if (fail != null) throw new IllegalStateException("Can't add names after compiling");
+        if (pattern.isEmpty() || patternIndices.containsKey(pattern)) return this;
+        patternIndices.put(pattern, patterns.size());
+        var bytes = pattern.getBytes(StandardCharsets.UTF_8);
+        patterns.add(bytes);
+        replacements.add(replacement.getBytes(StandardCharsets.UTF_8));
+        maxPatternLength = Math.max(maxPatternLength, bytes.length);
+        return this;
+    }
+
+    /**
+     * @return Whether there's nothing to replace
+     */
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * Builds the automaton, this has to be called once after adding all the names.
+     */
+    public NameReplacer compile() {
+        List<Map<Byte, Integer>> trie = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        trie.add(new HashMap<>());
+        outputs.add(-1);
+
+        // Build the trie out of the patterns
+        for (int i = 0; i < patterns.size(); i++) {
+            outputs.set(insert(trie, outputs, patterns.get(i)), i);
+        }
+
+        int size = trie.size();
+        transitionBytes = new byte[size][];
+        transitionTargets = new int[size][];
+        fail = new int[size];
+        output = new int[size];
+        outputLink = new int[size];
+        for (int node = 0; node < size; node++) {
+            var transitions = new TreeMap<>(trie.get(node));
+            transitionBytes[node] = new byte[transitions.size()];
+            transitionTargets[node] = new int[transitions.size()];
+            int i = 0;
+            for (var transition : transitions.entrySet()) {
+                transitionBytes[node][i] = transition.getKey();
+                transitionTargets[node][i++] = transition.getValue();
+            }
+            output[node] = outputs.get(node);
+        }
+
+        // Breadth first to set up the fail links
+        Deque<Integer> queue = new ArrayDeque<>();
+        outputLink[0] = -1;
+        for (int child : transitionTargets[0]) {
+            fail[child] = 0;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < transitionBytes[node].length; i++) {
+                byte b = transitionBytes[node][i];
+                int child = transitionTargets[node][i];
+                int state = fail[node];
+                while (state != 0 && next(state, b) == -1) state = fail[state];
+                int target = next(state, b);
+                fail[child] = target == -1 || target == child ? 0 : target;
+                outputLink[child] = output[fail[child]] != -1 ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+        return this;
+    }
+
+    private static int insert(List<Map<Byte, Integer>> trie, List<Integer> outputs, byte[] bytes) {
+        int node = 0;
+        for (byte b : bytes) {
+            var transitions = trie.get(node);
+            Integer child = transitions.get(b);
+            if (child == null) {
+                child = trie.size();
+                transitions.put(b, child);
+                trie.add(new HashMap<>());
+                outputs.add(-1);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private int next(int node, byte b) {
+        int i = Arrays.binarySearch(transitionBytes[node], b);
+        return i < 0 ? -1 : transitionTargets[node][i];
+    }
+
+    /**
+     * Replaces all the names in a string.
+     * @param content The string to replace the names in
+     * @return The string with the names replaced, or the same instance if nothing was replaced
+     */
+    public String replace(String content) {
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        var replaced = replace(bytes);
+        return replaced == bytes ? content : new String(replaced, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replaces all the names in UTF-8 encoded content.
+     * @param content The content to replace the names in
+     * @return The content with the names replaced, or the same instance if nothing was replaced
+     */
+    public byte[] replace(byte[] content) {
+        var matches = find(new ByteArrayInputStream(content));
+        if (matches.isEmpty()) return content;
+        var out = new ByteArrayOutputStream(content.length + 64);
+        apply(new ByteArrayInputStream(content), out, matches);
+        return out.toByteArray();
+    }
+
+    /**
+     * Replaces all the names in UTF-8 encoded content without loading it all at once. <br>
+     * The content is streamed once to find the names and, only if there are any, once more to replace them.
+     * @param content Opens the content, this is called at most twice
+     * @return The content with the names replaced, or null if nothing was replaced
+     */
+    public byte[] replace(Supplier<InputStream> content) {
+        List<Match> matches;
+        try (var in = content.get()) {
+            matches = find(in);
+        }
+        if (matches.isEmpty()) return null;
+        var out = new ByteArrayOutputStream();
+        try (var in = content.get()) {
+            apply(in, out, matches);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Finds all the names that should be replaced in a stream. <br>
+     * Only the last few bytes are kept around (enough to check the boundaries) so this works on content of any size.
+     * @param in The UTF-8 encoded content, this isn't closed
+     * @return The matches in order, without overlaps
+     */
+    public List<Match> find(InputStream in) {
+        if (fail == null) throw new IllegalStateException("NameReplacer has to be compiled first");
+        if (patterns.isEmpty()) return List.of();
+
+        // Scan once, collecting every match
+        List<Match> matches = new ArrayList<>();
+        List<Match> pending = new ArrayList<>(); // Matches that end at the previous byte, their end boundary is checked on the next one
+        byte[] history = new byte[Integer.highestOneBit(maxPatternLength) << 1]; // Ring buffer of the last bytes, so we can look right before a match
+        int mask = history.length - 1;
+        byte[] buffer = new byte[8192];
+        long position = 0;
+        int state = 0;
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            for (int i = 0; i < read; i++, position++) {
+                byte b = buffer[i];
+                if (!pending.isEmpty()) {
+                    if (!isIdentifierPart(b)) matches.addAll(pending);
+                    pending.clear();
+                }
+                history[(int) (position & mask)] = b;
+
+                int target;
+                while ((target = next(state, b)) == -1 && state != 0) state = fail[state];
+                state = target == -1 ? 0 : target;
+
+                for (int node = output[state] != -1 ? state : outputLink[state]; node != -1; node = outputLink[node]) {
+                    int pattern = output[node];
+                    var bytes = patterns.get(pattern);
+                    long start = position - bytes.length + 1;
+                    if (!isStartBoundary(start == 0 ? -1 : history[(int) ((start - 1) & mask)] & 0xFF, bytes)) continue;
+                    var match = new Match(start, pattern);
+                    // Names ending in something like `.` or `/` don't need anything after them checked
+                    if (isIdentifierPart(bytes[bytes.length - 1])) pending.add(match);
+                    else matches.add(match);
+                }
+            }
+        }
+        matches.addAll(pending); // Nothing comes after the end
+        if (matches.isEmpty()) return List.of();
+
+        // Leftmost longest, without overlaps
+        matches.sort(Comparator.comparingLong(Match::start)
+                .thenComparing(match -> -patterns.get(match.pattern).length));
+        List<Match> result = new ArrayList<>();
+        long replacedUntil = 0;
+        for (var match : matches) {
+            if (match.start < replacedUntil) continue; // Overlaps with a replacement we've already done
+            result.add(match);
+            replacedUntil = match.start + patterns.get(match.pattern).length;
+        }
+        return result;
+    }
+
+    /**
+     * Copies a stream, replacing the names that were found by {@link #find}.
+     * @param in The same content that was passed to {@link #find}, this isn't closed
+     * @param out Where to write the replaced content, this isn't closed
+     * @param matches The matches returned by {@link #find}
+     */
+    public void apply(InputStream in, OutputStream out, List<Match> matches) {
+        long position = 0;
+        for (var match : matches) {
+            copy(in, out, match.start - position);
+            in.skipNBytes(patterns.get(match.pattern).length);
+            out.write(replacements.get(match.pattern));
+            position = match.start + patterns.get(match.pattern).length;
+        }
+        in.transferTo(out);
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) {
+        byte[] buffer = new byte[(int) Math.min(8192, Math.max(length, 1))];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1) throw new EOFException("Content changed between finding and replacing names");
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Makes sure the match isn't just the end of a longer name.
+     * @param previous The byte right before the match, -1 if the match is at the start
+     */
+    private static boolean isStartBoundary(int previous, byte[] pattern) {
+        if (previous == -1 || !isIdentifierPart(pattern[0]) || !isIdentifierPart((byte) previous)) return true;
+        // Internal names are allowed to be part of a descriptor, e.g. `Lcom/example/Meow;`
+        if (previous != 'L') return false;
+        for (byte b : pattern) {
+            if (b == '/') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Only ASCII is checked, class names are ASCII in practice and things like `→` or curly quotes next to a name shouldn't stop it from being replaced.
+     */
+    private static boolean isIdentifierPart(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$';
+    }
+}
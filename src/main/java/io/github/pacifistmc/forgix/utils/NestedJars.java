@@ -0,0 +1,191 @@
+package io.github.pacifistmc.forgix.utils;
+
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Libraries nested in a JAR, Fabric's `META-INF/jars/` and Forge and NeoForge's `META-INF/jarjar/`. <br>
+ * Two builds of the same library are hardly ever the same bytes (timestamps, entry order, compression), so comparing them as plain files
+ * would relocate a library that didn't actually change. Instead a nested JAR is identified by its coordinates and the entries it contains,
+ * which is read once and then kept by the {@link InMemoryJar} it's in, see {@link InMemoryJar#getNestedJar}.
+ * Only when two copies have the same coordinates but different entries do we look inside them, see {@link #normalizedHash}.
+ * <br><br>
+ * A library that's nested by more than one loader under different paths is only kept once when the JARs are merged,
+ * see {@link #dedupe}, and the metadata of the other loaders is pointed at it.
+ */
+public class NestedJars {
+    private NestedJars() { }
+
+    // Where the loaders find their nested JARs, these are rewritten when a nested JAR is deduplicated
+    private static final List<String> METADATA = List.of("fabric.mod.json", "quilt.mod.json", "META-INF/jarjar/metadata.json");
+
+    /**
+     * A nested library.
+     * @param coordinates `group:artifact:version` from its Maven metadata (the one named like the JAR, otherwise the first), `id:version` from its mod metadata, or its file name if it has neither
+     * @param contentHash Hash of the names, CRCs and sizes of its entries, which doesn't change with timestamps, entry order or compression
+     */
+    public record Library(String coordinates, String contentHash) { }
+
+    /**
+     * @return Whether the entry is a nested JAR
+     */
+    public static boolean isNestedJar(String path) {
+        return path.endsWith(".jar") && (path.startsWith("META-INF/jars/") || path.startsWith("META-INF/jarjar/"));
+    }
+
+    /**
+     * Reads a nested JAR, it's decompressed once to get the CRCs of its entries.
+     * @param path The path of the nested JAR, for the coordinates if it doesn't have any metadata
+     * @param is The nested JAR
+     */
+    public static Library read(String path, InputStream is) {
+        SortedMap<String, String> entries = new TreeMap<>(); // Sorted so the order in the JAR doesn't matter
+        var fileName = path.substring(path.lastIndexOf('/') + 1).removeExtension();
+        String coordinates = null;
+        String namedCoordinates = null; // A shaded library has the pom of everything it shades, the one named like the JAR is the library itself
+        String modCoordinates = null;
+        try (var zis = new ZipInputStream(is)) {
+            for (var entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                if (entry.isDirectory()) continue;
+                var name = entry.getName();
+                if (name.startsWith("META-INF/maven/") && name.endsWith("/pom.properties")) {
+                    var properties = new Properties();
+                    properties.load(new ByteArrayInputStream(zis.readAllBytes()));
+                    var group = properties.getProperty("groupId");
+                    var artifact = properties.getProperty("artifactId");
+                    var version = properties.getProperty("version");
+                    var pomCoordinates = "${group}:${artifact}:${version}";
+                    if (coordinates == null) coordinates = pomCoordinates;
+                    if (namedCoordinates == null && artifact != null && fileName.startsWith(artifact)) namedCoordinates = pomCoordinates;
+                } else if (name.equals("fabric.mod.json")) {
+                    modCoordinates = modCoordinates(zis.readAllBytes());
+                } else {
+                    zis.transferTo(OutputStream.nullOutputStream()); // The CRC is only known once the entry has been read
+                }
+                entries.put(name, "${Long.toHexString(entry.getCrc())}:${entry.getSize()}");
+            }
+        }
+
+        if (entries.isEmpty()) throw new IllegalStateException("${path} is not a JAR or it's empty");
+
+        var digest = MessageDigest.getInstance("SHA-256");
+        entries.forEach((name, crcAndSize) -> digest.update("${name}\n${crcAndSize}\n".getBytes(StandardCharsets.UTF_8)));
+        if (namedCoordinates != null) coordinates = namedCoordinates;
+        if (coordinates == null) coordinates = modCoordinates;
+        if (coordinates == null) coordinates = fileName;
+        return new Library(coordinates, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Hashes a nested JAR by what's in it rather than how it was built, for two builds of the same library whose entries aren't all the same. <br>
+     * Classes are hashed without their debug info (see {@link JAR#computeNormalizedHash}), the JARs nested in it are hashed like this too,
+     * and build metadata (the manifest and Maven's pom files) only counts by its name.
+     * This decompresses and parses every class, so it's only for nested JARs that have the same coordinates but different entries.
+     * @param is The nested JAR
+     * @return The hash as a hex string
+     */
+    public static String normalizedHash(InputStream is) {
+        SortedMap<String, String> entries = new TreeMap<>();
+        try (var zis = new ZipInputStream(is)) {
+            for (var entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                if (entry.isDirectory()) continue;
+                var name = entry.getName();
+                if (isBuildMetadata(name)) {
+                    entries.put(name, "");
+                } else if (name.endsWith(".class") || isNestedJar(name)) {
+                    entries.put(name, normalizedHash(name, zis.readAllBytes()));
+                } else {
+                    zis.transferTo(OutputStream.nullOutputStream()); // The CRC is only known once the entry has been read
+                    entries.put(name, "${Long.toHexString(entry.getCrc())}:${entry.getSize()}");
+                }
+            }
+        }
+        if (entries.isEmpty()) throw new IllegalStateException("Not a JAR or it's empty");
+
+        var digest = MessageDigest.getInstance("SHA-256");
+        entries.forEach((name, hash) -> digest.update("${name}\n${hash}\n".getBytes(StandardCharsets.UTF_8)));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String normalizedHash(String name, byte[] content) {
+        try {
+            return name.endsWith(".class") ? HexFormat.of().formatHex(JAR.computeNormalizedHash(new ByteArrayInputStream(content))) : normalizedHash(new ByteArrayInputStream(content));
+        } catch (RuntimeException _) {
+            return HexFormat.of().formatHex(JAR.computeHash(new ByteArrayInputStream(content))); // Can't be read, so only the exact same bytes are the same
+        }
+    }
+
+    private static boolean isBuildMetadata(String name) {
+        return name.equals("META-INF/MANIFEST.MF") || name.startsWith("META-INF/maven/") && (name.endsWith("/pom.properties") || name.endsWith("/pom.xml"));
+    }
+
+    private static String modCoordinates(byte[] fabricModJson) {
+        try {
+            var json = JsonParser.parseString(new String(fabricModJson, StandardCharsets.UTF_8)).getAsJsonObject();
+            var id = json.get("id").getAsString();
+            var version = json.get("version").getAsString();
+            return "${id}:${version}";
+        } catch (RuntimeException _) {
+            return null; // Not valid JSON or it doesn't have an id and version
+        }
+    }
+
+    /**
+     * Keeps a library that's nested in more than one JAR under different paths only once. <br>
+     * The first copy is kept, every other copy is removed and the metadata that pointed at it points at the kept one instead.
+     * This is only for JARs that are about to be merged, a JAR on its own would be missing the library afterward.
+     * A copy is only removed if its metadata actually pointed at it and the kept path isn't used by anything else.
+     * @param jars The JARs in the order they're merged in
+     * @return How many nested JARs were removed
+     */
+    public static int dedupe(List<InMemoryJar> jars) {
+        record Copy(InMemoryJar jar, String path, Library library) { }
+        List<Copy> copies = new ArrayList<>();
+        Map<String, Set<Library>> librariesByPath = new HashMap<>();
+        for (var jar : jars) {
+            for (var name : jar.getNames()) {
+                if (!isNestedJar(name)) continue;
+                var library = jar.getNestedJar(name);
+                copies.add(new Copy(jar, name, library));
+                librariesByPath.computeIfAbsent(name, _ -> new HashSet<>()).add(library);
+            }
+        }
+
+        Map<Library, Copy> kept = new HashMap<>();
+        int removed = 0;
+        for (var copy : copies) {
+            var first = kept.putIfAbsent(copy.library, copy);
+            if (first == null || first.path.equals(copy.path)) continue; // The same path is only kept once anyway
+            if (librariesByPath.get(first.path).size() > 1) continue; // Something else is there too, so we can't know which one ends up in the merged JAR
+            if (!repoint(copy.jar, copy.path, first.path)) continue;
+            copy.jar.remove(copy.path::equals);
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Points the metadata of a JAR at another path for a nested JAR.
+     * @return Whether any metadata pointed at it
+     */
+    private static boolean repoint(InMemoryJar jar, String from, String to) {
+        var replacer = new NameReplacer().add("\"${from}\"", "\"${to}\"").compile(); // Only exact JSON strings
+        boolean repointed = false;
+        for (var metadata : METADATA) {
+            if (!jar.contains(metadata)) continue;
+            var content = jar.read(metadata);
+            var replaced = replacer.replace(content);
+            if (replaced == content) continue;
+            jar.write(metadata, replaced);
+            repointed = true;
+        }
+        return repointed;
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.util.regex.Pattern;
+
+/**
+ * A glob for paths in a JAR. <br>
+ * `**` matches across directories, `*` matches within a single name and `?` matches a single character.
+ * A glob without a `/` only looks at the file name, so `*.json` matches JSON files in every directory.
+ * @param glob The glob as it was written
+ * @param pattern The glob as a regex
+ * @param fileNameOnly Whether only the file name is matched
+ */
+public record PathGlob(String glob, Pattern pattern, boolean fileNameOnly) {
+    public static PathGlob of(String glob) {
+        var regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return new PathGlob(glob, Pattern.compile(regex.toString()), !glob.contains("/"));
+    }
+
+    /**
+     * @param path The path of the entry in the JAR
+     */
+    public boolean matches(String path) {
+        return pattern.matcher(fileNameOnly ? path.substring(path.lastIndexOf('/') + 1) : path).matches();
+    }
+}
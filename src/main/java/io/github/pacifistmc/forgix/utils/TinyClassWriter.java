@@ -1,38 +1,44 @@
 package io.github.pacifistmc.forgix.utils;
 
+import io.github.pacifistmc.forgix.core.ForgixExecutor;
 import io.github.pacifistmc.forgix.core.RelocationConfig;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Writes relocation mappings as tiny files. <br>
  * Namespace: original -> relocated
  * This only writes class mappings.
+ * <br><br>
+ * Relocation doesn't need these (the mappings are handed to the remapper straight from memory),
+ * they're only written once at the end so they can be shipped with the merged JAR.
  */
 public class TinyClassWriter {
     private TinyClassWriter() { }
 
     public static void write(List<RelocationConfig> relocationConfigs, File outputDirectory) {
         // Iterate over each relocation and it's mappings
-        relocationConfigs.parallelStream().forEach(relocationConfig -> {
+        ForgixExecutor.current().forEach(relocationConfigs, relocationConfig -> {
             // Set the tiny file for the relocation
             if (relocationConfig.tinyFile == null)
-                relocationConfig.setTinyFile(
-                        new File(outputDirectory, relocationConfig.jarFile.getName()
-                                .setBaseNameExtension("${relocationConfig.conflictPrefix}.tiny"))
-                                .createFileWithParents("tiny\t2\t0\toriginal\trelocated\n")
-                );
+                relocationConfig.setTinyFile(new File(outputDirectory, relocationConfig.jar.file.getName().setBaseNameExtension("${relocationConfig.conflictPrefix}.tiny")));
             // Write the mappings
             write(relocationConfig.tinyFile, relocationConfig.mappings);
         });
     }
 
+    /**
+     * Writes the class mappings to a tiny file, the file is overwritten if it already exists.
+     */
     public static void write(File tinyFile, Map<String, String> mappings) {
-        try (var fileWriter = new FileWriter(tinyFile, true)) {
-            for (var mappingsEntry : mappings.entrySet()) {
+        tinyFile.getParentFile().mkdirs();
+        try (var fileWriter = new FileWriter(tinyFile)) {
+            fileWriter.write("tiny\t2\t0\toriginal\trelocated\n");
+            for (var mappingsEntry : new TreeMap<>(mappings).entrySet()) { // Sorted so the same mappings always give the same file
                 if (!mappingsEntry.getKey().endsWith(".class")) continue; // Return if not a class file
                 // Write class mappings
                 fileWriter.write("c\t${mappingsEntry.getKey().removeExtension()}\t${mappingsEntry.getValue().removeExtension()}\n");
@@ -0,0 +1,155 @@
+package io.github.pacifistmc.forgix.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a ZIP file in one sequential go, copying the unchanged entries of another ZIP file as they are. <br>
+ * {@link java.util.zip.ZipOutputStream} only takes uncompressed data, so copying an entry with it means inflating and deflating it again.
+ * This copies the compressed bytes straight across instead, so only the entries that actually changed get compressed
+ * and rewriting a JAR costs about as much as copying the file.
+ */
+public class ZipRewriter implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+    /**
+     * The most entries we can write without ZIP64.
+     */
+    public static final int MAX_ENTRIES = 0xFFFF;
+
+    private final FileChannel source;
+    private final FileChannel target;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private int count;
+
+    /**
+     * Starts writing a ZIP file.
+     * @param target The file to write to, it's overwritten if it exists
+     * @param source The ZIP file entries are copied from, it must not be the same as the target
+     */
+    public ZipRewriter(File target, File source) {
+        this.source = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        this.target = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Copies an entry from the source without decompressing it.
+     * @param name The name of the entry in the new ZIP file, this doesn't have to be the same as in the source
+     * @param index The index of the source, it has to be {@link JarIndex#isRawCopyable()}
+     * @param id The id of the entry in the index
+     */
+    public void copy(String name, JarIndex index, int id) {
+        long localHeaderOffset = index.localHeaderOffset(id);
+        var localHeader = read(source, localHeaderOffset, LOCAL_HEADER_LENGTH);
+        if (localHeader.getInt(0) != LOCAL_HEADER) throw new IllegalStateException("Invalid local header for ${name}");
+        long dataOffset = localHeaderOffset + LOCAL_HEADER_LENGTH + Short.toUnsignedInt(localHeader.getShort(26)) + Short.toUnsignedInt(localHeader.getShort(28));
+
+        // The sizes go in the local header so there's no data descriptor after the data anymore
+        long compressedSize = index.compressedSize(id);
+        writeHeaders(name, (index.flags(id) & ~DATA_DESCRIPTOR_FLAG) | UTF8_FLAG, index.method(id), index.dosTime(id), index.crc(id), compressedSize, index.size(id));
+        for (long copied = 0; copied < compressedSize; ) {
+            copied += source.transferTo(dataOffset + copied, compressedSize - copied, target);
+        }
+    }
+
+    /**
+     * Writes a new entry, compressing it if that makes it smaller.
+     * @param name The name of the entry
+     * @param content The uncompressed content
+     * @param crc The CRC-32 of the content
+     * @param dosTime The last modified time in MS-DOS format, see {@link #dosTime()}
+     */
+    public void write(String name, byte[] content, long crc, int dosTime) {
+        byte[] data = content;
+        int method = 0; // Stored
+        if (content.length > 0) {
+            var deflated = new ByteArrayOutputStream(content.length / 2);
+            var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try (var dos = new DeflaterOutputStream(deflated, deflater)) {
+                dos.write(content);
+            } finally {
+                deflater.end();
+            }
+            if (deflated.size() < content.length) {
+                data = deflated.toByteArray();
+                method = 8; // Deflated
+            }
+        }
+        writeHeaders(name, UTF8_FLAG, method, dosTime, crc, data.length, content.length);
+        target.write(ByteBuffer.wrap(data));
+    }
+
+    private void writeHeaders(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size) {
+        if (count == MAX_ENTRIES) throw new IllegalStateException("Too many entries to write without ZIP64");
+        long offset = target.position();
+        if (offset > 0xFFFFFFFFL) throw new IllegalStateException("ZIP file is too big to write without ZIP64");
+        var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        var local = ByteBuffer.allocate(LOCAL_HEADER_LENGTH + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER).putShort((short) 20).putShort((short) flags).putShort((short) method).putInt(dosTime)
+                .putInt((int) crc).putInt((int) compressedSize).putInt((int) size)
+                .putShort((short) nameBytes.length).putShort((short) 0).put(nameBytes);
+        target.write(local.flip());
+
+        var central = ByteBuffer.allocate(CENTRAL_HEADER_LENGTH + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        central.putInt(CENTRAL_HEADER).putShort((short) 20).putShort((short) 20).putShort((short) flags).putShort((short) method).putInt(dosTime)
+                .putInt((int) crc).putInt((int) compressedSize).putInt((int) size)
+                .putShort((short) nameBytes.length).putShort((short) 0).putShort((short) 0) // name, extra & comment length
+                .putShort((short) 0).putShort((short) 0).putInt(0) // disk, internal & external attributes
+                .putInt((int) offset).put(nameBytes);
+        centralDirectory.write(central.array());
+        count++;
+    }
+
+    /**
+     * Writes the central directory and closes the files.
+     */
+    @Override
+    public void close() {
+        try {
+            long offset = target.position();
+            target.write(ByteBuffer.wrap(centralDirectory.toByteArray()));
+            var end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) count).putShort((short) count)
+                    .putInt(centralDirectory.size()).putInt((int) offset).putShort((short) 0);
+            target.write(end.flip());
+        } finally {
+            source.close();
+            target.close();
+        }
+    }
+
+    /**
+     * @return The current time in MS-DOS format, which is what ZIP files use
+     */
+    public static int dosTime() {
+        var now = LocalDateTime.now();
+        return (now.getYear() - 1980) << 25 | now.getMonthValue() << 21 | now.getDayOfMonth() << 16
+                | now.getHour() << 11 | now.getMinute() << 5 | now.getSecond() >> 1;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) throw new IllegalStateException("Unexpected end of ZIP file");
+        }
+        return buffer.flip();
+    }
+}
@@ -1,29 +1,64 @@
 package io.github.pacifistmc.forgix.tests;
 
+import com.google.gson.JsonParser;
 import io.github.pacifistmc.forgix.Forgix;
+import io.github.pacifistmc.forgix.core.ForgixExecutor;
+import io.github.pacifistmc.forgix.core.ForgixSession;
 import io.github.pacifistmc.forgix.core.Multiversion;
+import io.github.pacifistmc.forgix.core.RelocationCache;
 import io.github.pacifistmc.forgix.core.Relocator;
+import io.github.pacifistmc.forgix.core.StableNames;
+import io.github.pacifistmc.forgix.core.resources.MixinIndex;
+import io.github.pacifistmc.forgix.core.resources.ResourceContext;
+import io.github.pacifistmc.forgix.core.resources.ResourceTransformers;
+import io.github.pacifistmc.forgix.utils.AsmRemapper;
+import io.github.pacifistmc.forgix.utils.ClassHierarchyIndex;
+import io.github.pacifistmc.forgix.utils.ClassReferences;
+import io.github.pacifistmc.forgix.utils.ContentSniffer;
+import io.github.pacifistmc.forgix.utils.InMemoryJar;
 import io.github.pacifistmc.forgix.utils.JAR;
+import io.github.pacifistmc.forgix.utils.JarFilePool;
+import io.github.pacifistmc.forgix.utils.JarIndex;
+import io.github.pacifistmc.forgix.utils.NameReplacer;
+import io.github.pacifistmc.forgix.utils.NestedJars;
 import io.github.pacifistmc.forgix.utils.TinyClassWriter;
 import org.junit.jupiter.api.AfterEach;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LdcInsnNode;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 
 import io.github.pacifistmc.forgix.core.RelocationConfig;
+import io.github.pacifistmc.forgix.core.RelocationOptions;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -225,6 +260,567 @@ public class CoreTest {
         }
     }
 
+    @Test
+    void testSinglePassClassRelocation() throws IOException {
+        // Copy different jars into the temp directory
+        File differentJarACopy = tempDir.resolve("conflict-a.jar").toFile();
+        File differentJarBCopy = tempDir.resolve("conflict-b.jar").toFile();
+        FileUtils.copyFile(differentJarA, differentJarACopy);
+        FileUtils.copyFile(differentJarB, differentJarBCopy);
+
+        try(JarFile differentJarA = new JarFile(differentJarACopy);
+            JarFile differentJarB = new JarFile(differentJarBCopy)) {
+            List<RelocationConfig> files = new ArrayList<>(List.of(
+                    new RelocationConfig(differentJarA, "diffA"),
+                    new RelocationConfig(differentJarB, "diffB")
+            ));
+            int passes = Relocator.relocateClasses(files);
+            if (debug) "Class conflicts would have taken ${passes} passes".println();
+
+            // Looking for conflicts again must not find any new class conflicts, everything should've been relocated in one go
+            Relocator.generateMappings(files, false);
+            for (var file : files) {
+                assertTrue(file.mappings.keySet().stream().noneMatch(path -> path.endsWith(".class")), "No class conflicts should be left after a single remap");
+            }
+        }
+    }
+
+    @Test
+    void testNestGrouping() throws IOException {
+        // Meow differs between the jars, Meow$Purr is identical and doesn't even refer to Meow
+        var purrWriter = new ClassWriter(0);
+        purrWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "com/example/Meow\$Purr", null, "java/lang/Object", null);
+        purrWriter.visitEnd();
+        byte[] purr = purrWriter.toByteArray();
+
+        List<RelocationConfig> files = new ArrayList<>();
+        for (var loader : List.of("diffA", "diffB")) {
+            File jarFile = writeJar("nest-${loader}.jar", Map.of("com/example/Meow.class", createClass("Meow.java", 1, loader), "com/example/Meow\$Purr.class", purr));
+            files.add(new RelocationConfig(new JarFile(jarFile), loader));
+        }
+
+        try {
+            Relocator.generateMappings(files);
+            for (var file : files) {
+                assertTrue(file.mappings.containsKey("com/example/Meow.class"));
+                assertTrue(file.mappings.containsKey("com/example/Meow\$Purr.class"), "The whole nest should be relocated together");
+            }
+        } finally {
+            closeAll(files);
+        }
+    }
+
+    @Test
+    void testShareMajority() throws IOException {
+        // Three of the four jars have the same Meow, only the last one is different
+        Map<String, String> loaders = new LinkedHashMap<>(Map.of("diffA", "meow", "diffB", "meow", "diffC", "meow"));
+        loaders.put("diffD", "purr");
+        try (var session = new ForgixSession(maxOpenJars: 2)) {
+            List<RelocationConfig> files = new ArrayList<>();
+            for (var entry : loaders.entrySet()) {
+                File jarFile = writeJar("majority-${entry.getKey()}.jar", Map.of("com/example/Meow.class", createClass("Meow.java", 1, entry.getValue())));
+                files.add(new RelocationConfig(session.track(new InMemoryJar(jarFile, session.jarFilePool)), entry.getKey()));
+            }
+
+            var options = new RelocationOptions();
+            options.setShareMajority(true);
+            Relocator.generateMappings(files, options: options);
+            for (var file : files.subList(0, 3)) assertFalse(file.mappings.containsKey("com/example/Meow.class"), "The majority should stay shared");
+            assertEquals("com/example/Meow_diffD.class", files.get(3).mappings.get("com/example/Meow.class"));
+            assertTrue(session.jarFilePool.openCount() <= 2, "Idle jars should be closed once there are too many open");
+            assertEquals(JarFilePool.DEFAULT_MAX_OPEN, new JarFilePool().maxOpen, "Other pools shouldn't get the session's limit");
+        }
+    }
+
+    @Test
+    void testProfiles() throws IOException {
+        for (var profile : RelocationOptions.Profile.values()) assertEquals(profile, RelocationOptions.Profile.of(profile.toString()));
+        assertThrows(IllegalArgumentException.class, () -> RelocationOptions.Profile.of("turbo"));
+        var release = new RelocationOptions();
+        var paranoid = new RelocationOptions();
+        paranoid.setProfile(RelocationOptions.Profile.PARANOID);
+        assertNotEquals(release.fingerprint(), paranoid.fingerprint(), "Relocated jars from different profiles shouldn't be mixed up");
+
+        // Purr is the same in both jars but refers to Meow, which isn't
+        var purrWriter = new ClassWriter(0);
+        purrWriter.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, "com/example/Purr", null, "java/lang/Object", null);
+        purrWriter.visitField(Opcodes.ACC_PUBLIC, "meow", "Lcom/example/Meow;", null, null).visitEnd();
+        purrWriter.visitEnd();
+        byte[] purr = purrWriter.toByteArray();
+
+        List<RelocationConfig> files = new ArrayList<>();
+        for (var loader : List.of("diffA", "diffB")) {
+            File jarFile = writeJar("profile-${loader}.jar", Map.of("com/example/Meow.class", createClass("Meow.java", 1, loader), "com/example/Purr.class", purr));
+            files.add(new RelocationConfig(new InMemoryJar(jarFile), loader));
+        }
+
+        try {
+            paranoid.setRemapEngine(RelocationOptions.RemapEngine.ASM);
+            assertDoesNotThrow(() -> Relocator.relocateClasses(files, paranoid), "Every reference should've been remapped");
+            for (var file : files) {
+                var classNode = new ClassNode();
+                new ClassReader(file.jar.read("com/example/Purr_${file.conflictPrefix}.class")).accept(classNode, 0);
+                assertEquals("Lcom/example/Meow_${file.conflictPrefix};", classNode.fields.getFirst().desc);
+            }
+        } finally {
+            closeAll(files);
+        }
+    }
+
+    @Test
+    void testStableNames() throws IOException {
+        // Last release relocated Meow under another name and Purr, which doesn't conflict anymore
+        File previousRelease = writeJar("previous.jar", Map.of("META-INF/forgix/stable-diffA.diffA.tiny",
+                "tiny\t2\t0\toriginal\trelocated\nc\tcom/example/Meow\tcom/example/Meow_old\nc\tcom/example/Purr\tcom/example/Purr_diffA\n".getBytes()));
+        var purrWriter = new ClassWriter(0);
+        purrWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "com/example/Purr", null, "java/lang/Object", null);
+        purrWriter.visitEnd();
+
+        List<RelocationConfig> files = new ArrayList<>();
+        for (var loader : List.of("diffA", "diffB")) {
+            File jarFile = writeJar("stable-${loader}.jar", Map.of("com/example/Meow.class", createClass("Meow.java", 1, loader), "com/example/Purr.class", purrWriter.toByteArray()));
+            files.add(new RelocationConfig(new InMemoryJar(jarFile), loader));
+        }
+
+        try {
+            var options = new RelocationOptions();
+            options.setPreviousMappings(StableNames.read(previousRelease));
+            Relocator.generateMappings(files, options: options);
+            assertEquals("com/example/Meow_old.class", files.get(0).mappings.get("com/example/Meow.class"));
+            assertEquals("com/example/Purr_diffA.class", files.get(0).mappings.get("com/example/Purr.class"), "Relocated classes should stay relocated");
+            assertEquals("com/example/Meow_diffB.class", files.get(1).mappings.get("com/example/Meow.class"));
+
+            TinyClassWriter.write(files, tempDir.toFile());
+            assertEquals(List.of("diffB + com/example/Meow -> com/example/Meow_diffB"), StableNames.diff(options.previousMappings, files));
+
+            var otherRelease = new RelocationOptions();
+            otherRelease.setPreviousMappings(Map.of("diffA", Map.of("com/example/Meow", "com/example/Meow_new")));
+            assertNotEquals(options.fingerprint(), otherRelease.fingerprint(), "A different previous release should never share cached jars");
+        } finally {
+            closeAll(files);
+        }
+    }
+
+    @Test
+    void testConflictPolicies() throws IOException {
+        Map<String, String> contents = Map.of(
+                "assets/example/lang/en_us.json", "{\"item.meow\": \"LOADER\", \"tags\": [\"LOADER\"]}",
+                "assets/example/textures/meow.png", "LOADER",
+                "data/example/meow.txt", "LOADER"
+        );
+        List<RelocationConfig> files = new ArrayList<>();
+        for (var loader : List.of("diffA", "diffB")) {
+            Map<String, byte[]> entries = new HashMap<>();
+            contents.forEach((path, content) -> entries.put(path, content.replace("LOADER", loader).getBytes()));
+            File jarFile = writeJar("policies-${loader}.jar", entries);
+            files.add(new RelocationConfig(new InMemoryJar(jarFile), loader));
+        }
+
+        try {
+            var options = new RelocationOptions();
+            options.conflictPolicies.put("lang/*.json", "merge"); // Doesn't match, a glob with a slash is matched against the whole path
+            options.conflictPolicies.put("assets/**/lang/*.json", "merge");
+            options.conflictPolicies.put("*.png", "keep-from:diffB");
+            Relocator.generateMappings(files, options: options);
+            for (var file : files) {
+                assertEquals(Set.of("data/example/meow.txt"), file.mappings.keySet(), "Only resources without a policy should be relocated");
+                assertEquals("diffB", file.jar.readString("assets/example/textures/meow.png"));
+                var lang = JsonParser.parseString(file.jar.readString("assets/example/lang/en_us.json")).getAsJsonObject();
+                assertEquals("diffA", lang.get("item.meow").getAsString(), "The first version should win");
+                assertEquals(2, lang.getAsJsonArray("tags").size(), "Arrays should be combined");
+            }
+
+            options.conflictPolicies.put("*.txt", "fail");
+            assertThrows(IllegalStateException.class, () -> Relocator.generateMappings(files, false, options));
+        } finally {
+            closeAll(files);
+        }
+    }
+
+    @Test
+    void testNestedJars() throws IOException {
+        // The same library built twice, only the timestamps and entry order are different
+        var meow = Map.entry("com/example/Meow.class", createClass("Meow.java", 1, "meow"));
+        var libPom = Map.entry("META-INF/maven/com.example/lib/pom.properties", pom("lib"));
+        byte[] library = nestedJar(0, meow, libPom);
+        byte[] rebuilt = nestedJar(1_000_000_000L, libPom, meow);
+        assertFalse(Arrays.equals(library, rebuilt));
+        var read = NestedJars.read("META-INF/jars/lib.jar", new ByteArrayInputStream(library));
+        assertEquals(read, NestedJars.read("META-INF/jarjar/lib-1.0.jar", new ByteArrayInputStream(rebuilt)));
+        assertEquals("com.example:lib:1.0", read.coordinates());
+
+        // A shaded library has the pom of what it shades too, the one named like the jar is the library
+        byte[] shaded = nestedJar(0, Map.entry("META-INF/maven/com.example/shaded/pom.properties", pom("shaded")), libPom);
+        assertEquals("com.example:lib:1.0", NestedJars.read("META-INF/jars/lib-1.0.jar", new ByteArrayInputStream(shaded)).coordinates());
+
+        // Only the debug info of the library is different, which is only noticed by looking inside
+        byte[] debug = nestedJar(0, Map.entry(meow.getKey(), createClass("Meow-forge.java", 42, "meow")), libPom);
+        byte[] different = nestedJar(0, Map.entry(meow.getKey(), createClass("Meow.java", 1, "woof")), libPom);
+        assertNotEquals(read, NestedJars.read("META-INF/jars/lib.jar", new ByteArrayInputStream(debug)));
+        assertEquals(NestedJars.normalizedHash(new ByteArrayInputStream(library)), NestedJars.normalizedHash(new ByteArrayInputStream(debug)));
+        assertNotEquals(NestedJars.normalizedHash(new ByteArrayInputStream(library)), NestedJars.normalizedHash(new ByteArrayInputStream(different)));
+        List<RelocationConfig> files = new ArrayList<>();
+        Map<String, byte[]> versions = new LinkedHashMap<>(Map.of("diffA", library, "diffB", debug));
+        versions.put("diffC", different);
+        for (var version : versions.entrySet()) {
+            File jarFile = writeJar("nested-${version.getKey()}.jar", Map.of("META-INF/jars/lib.jar", version.getValue()));
+            files.add(new RelocationConfig(new InMemoryJar(jarFile), version.getKey()));
+        }
+        try {
+            var options = new RelocationOptions();
+            options.setShareMajority(true); // So the two builds that behave the same stay where they are
+            Relocator.generateMappings(files, options: options);
+            assertEquals(List.of(Set.of(), Set.of(), Set.of("META-INF/jars/lib.jar")), files.stream().map(file -> file.mappings.keySet()).toList(), "Only the library that really changed should be relocated");
+        } finally {
+            closeAll(files);
+        }
+
+        Map<String, Map<String, byte[]>> contents = Map.of(
+                "fabric", Map.of("META-INF/jars/lib.jar", library, "fabric.mod.json", "{\"jars\": [{\"file\": \"META-INF/jars/lib.jar\"}]}".getBytes()),
+                "forge", Map.of("META-INF/jarjar/lib-1.0.jar", rebuilt, "META-INF/jarjar/metadata.json", "{\"jars\": [{\"path\": \"META-INF/jarjar/lib-1.0.jar\"}]}".getBytes())
+        );
+        List<InMemoryJar> jars = new ArrayList<>();
+        for (var loader : List.of("fabric", "forge")) jars.add(new InMemoryJar(writeJar("nested-${loader}.jar", contents.get(loader))));
+
+        try {
+            assertEquals(1, NestedJars.dedupe(jars));
+            assertTrue(jars.getFirst().contains("META-INF/jars/lib.jar"));
+            assertFalse(jars.getLast().contains("META-INF/jarjar/lib-1.0.jar"));
+            assertTrue(jars.getLast().readString("META-INF/jarjar/metadata.json").contains("\"META-INF/jars/lib.jar\""), "Forge should be pointed at the library Fabric nests");
+        } finally {
+            for (var jar : jars) jar.close();
+        }
+    }
+
+    @SafeVarargs
+    private static byte[] nestedJar(long time, Map.Entry<String, byte[]>... entries) throws IOException {
+        var baos = new ByteArrayOutputStream();
+        try (var zos = new ZipOutputStream(baos)) {
+            for (var content : entries) {
+                var entry = new ZipEntry(content.getKey());
+                entry.setTime(time);
+                zos.putNextEntry(entry);
+                zos.write(content.getValue());
+                zos.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] pom(String artifact) {
+        return "groupId=com.example\nartifactId=${artifact}\nversion=1.0\n".getBytes();
+    }
+
+    @Test
+    void testClassHierarchyIndex() throws IOException {
+        File classpathJar = tempDir.resolve("minecraft.jar").toFile();
+        try (var zos = new ZipOutputStream(new FileOutputStream(classpathJar))) {
+            zos.putNextEntry(new ZipEntry("com/example/Meow.class"));
+            zos.write(createClass("Meow.java", 1, "meow"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("assets/meow.png"));
+            zos.closeEntry();
+        }
+
+        File cacheDirectory = tempDir.resolve("hierarchy").toFile();
+        var index = ClassHierarchyIndex.of(classpathJar, cacheDirectory);
+        assertEquals(index, ClassHierarchyIndex.of(classpathJar, cacheDirectory)); // Cached by the hash of the jar
+
+        try (var jar = new JarFile(index.toFile())) {
+            assertEquals(1, jar.size()); // Only classes
+            var classNode = new ClassNode();
+            new ClassReader(jar.getInputStream(jar.getEntry("com/example/Meow.class")).readAllBytes()).accept(classNode, 0);
+            assertEquals("java/lang/Object", classNode.superName);
+            assertEquals("meow", classNode.methods.getFirst().name);
+            assertEquals(0, classNode.methods.getFirst().instructions.size()); // Without code
+            assertNull(classNode.sourceFile);
+        }
+    }
+
+    @Test
+    void testNameReplacer() {
+        NameReplacer replacer = new NameReplacer()
+                .add("com/example/Meow", "com/example/Meow_diffA")
+                .add("com.example.Meow", "com.example.Meow_diffA")
+                .compile();
+
+        // Only whole names are replaced, "com.example.Meow2" is a different class
+        assertEquals("com.example.Meow_diffA com.example.Meow2", replacer.replace("com.example.Meow com.example.Meow2"));
+        // Internal names inside descriptors are still replaced
+        assertEquals("(ILcom/example/Meow_diffA;)V", replacer.replace("(ILcom/example/Meow;)V"));
+    }
+
+    @Test
+    void testContentSniffer() {
+        // Known extensions are never opened
+        assertTrue(ContentSniffer.isBinary("assets/example/textures/meow.png", () -> { throw new IllegalStateException("Shouldn't be opened"); }));
+        assertFalse(ContentSniffer.isBinary("example.mixins.json", () -> { throw new IllegalStateException("Shouldn't be opened"); }));
+
+        // Unknown extensions are sniffed
+        assertFalse(ContentSniffer.isBinary("META-INF/services/com.example.Meow", () -> new ByteArrayInputStream("com.example.MeowImpl\n".getBytes())));
+        assertTrue(ContentSniffer.isBinary("data/example/meow", () -> new ByteArrayInputStream(new byte[] { 0x0A, 0x00, 0x04, 'M', 'e', 'o', 'w' })));
+        assertTrue(ContentSniffer.isBinary("data/example/meow", () -> new ByteArrayInputStream(new byte[] { 'P', 'K', 3, 4, 'M', 'e', 'o', 'w' })));
+
+        // Whole resources are sniffed a chunk at a time, characters cut in half by a chunk are still valid
+        byte[] model = "v 0.5 1.0 mèow\n".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        assertFalse(ContentSniffer.isBinary("assets/example/meow.obj", () -> new ByteArrayInputStream(model), Integer.MAX_VALUE));
+        model[100_000] = 0;
+        assertFalse(ContentSniffer.isBinary("assets/example/meow.obj", () -> new ByteArrayInputStream(model)), "Only the start is sniffed by default");
+        assertTrue(ContentSniffer.isBinary("assets/example/meow.obj", () -> new ByteArrayInputStream(model), Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testInMemoryJarSave() throws IOException {
+        File jarFile = tempDir.resolve("save.jar").toFile();
+        try (var zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (var name : List.of("META-INF/MANIFEST.MF", "com/example/Meow.class", "assets/example/lang/en_us.json")) {
+                zos.putNextEntry(new ZipEntry(name));
+                zos.write(name.repeat(100).getBytes());
+                zos.closeEntry();
+            }
+        }
+
+        try (var jar = new InMemoryJar(jarFile)) {
+            jar.write("assets/example/lang/en_us.json", "{}".getBytes());
+            jar.rename(Map.of("com/example/Meow.class", "com/example/Meow_diffA.class"));
+            jar.save();
+        }
+
+        // Unchanged entries are copied as they are, even when renamed
+        try (var jar = new JarFile(jarFile)) {
+            assertEquals(3, jar.size());
+            assertNull(jar.getEntry("com/example/Meow.class"));
+            assertEquals("com/example/Meow.class".repeat(100), new String(jar.getInputStream(jar.getEntry("com/example/Meow_diffA.class")).readAllBytes()));
+            assertEquals("{}", new String(jar.getInputStream(jar.getEntry("assets/example/lang/en_us.json")).readAllBytes()));
+            assertEquals("META-INF/MANIFEST.MF".repeat(100), new String(jar.getInputStream(jar.getEntry("META-INF/MANIFEST.MF")).readAllBytes()));
+        }
+
+        // Wrapping an open JarFile doesn't take it over, it's still the caller's
+        try (var jar = new JarFile(jarFile)) {
+            try (var first = new InMemoryJar(jar);
+                 var second = new InMemoryJar(jar)) {
+                assertEquals("{}", new String(first.read("assets/example/lang/en_us.json")));
+                assertEquals("{}", new String(second.read("assets/example/lang/en_us.json")));
+            }
+            assertEquals(3, jar.size(), "The JarFile should still be open");
+        }
+    }
+
+    @Test
+    void testInMemoryJarFingerprints() throws IOException {
+        File jarFile = tempDir.resolve("fingerprints.jar").toFile();
+        try (var zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (var name : List.of("meow.txt", "purr.txt")) {
+                zos.putNextEntry(new ZipEntry(name));
+                zos.write(name.getBytes());
+                zos.closeEntry();
+            }
+        }
+
+        try (var jar = new InMemoryJar(jarFile)) {
+            long meow = jar.getChecksum("meow.txt");
+            long purr = jar.getChecksum("purr.txt");
+            assertEquals(JAR.computeChecksum(new ByteArrayInputStream("meow.txt".getBytes())), meow);
+
+            // Renamed entries keep their fingerprint, written ones get a new one
+            jar.rename(Map.of("meow.txt", "meow_diffA.txt"));
+            jar.write("purr.txt", "hiss".getBytes());
+            assertEquals(meow, jar.getChecksum("meow_diffA.txt"));
+            assertNotEquals(purr, jar.getChecksum("purr.txt"));
+            assertEquals(JAR.computeChecksum(new ByteArrayInputStream("hiss".getBytes())), jar.getChecksum("purr.txt"));
+        }
+    }
+
+    @Test
+    void testJarIndex() throws IOException {
+        File jarFile = tempDir.resolve("index.jar").toFile();
+        try (var zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (var name : List.of("com/", "com/example/Meow.class", "assets/example/lang/en_us.json")) {
+                zos.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) zos.write(name.getBytes());
+                zos.closeEntry();
+            }
+        }
+
+        var index = JarIndex.of(jarFile);
+        assertEquals(3, index.size());
+        assertTrue(index.isRawCopyable());
+        assertEquals(-1, index.id("com/example/Woof.class"));
+        int id = index.id("com/example/Meow.class");
+        assertEquals("com/example/Meow.class", index.name(id));
+        assertEquals("com/example/Meow.class".length(), index.size(id));
+        assertTrue(index.isDirectory(index.id("com/")));
+        assertArrayEquals(new int[] { id }, index.classIds());
+        assertArrayEquals(new int[] { index.id("assets/example/lang/en_us.json") }, index.resourceIds());
+
+        // The jar only overlays its changes on the index
+        try (var jar = new InMemoryJar(jarFile)) {
+            jar.rename(Map.of("com/example/Meow.class", "com/example/Meow_diffA.class"));
+            jar.write("data/example/new.json", "{}".getBytes());
+            assertEquals(List.of("com/", "assets/example/lang/en_us.json", "com/example/Meow_diffA.class", "data/example/new.json"), new ArrayList<>(jar.getNames()));
+            assertEquals(Set.of("com/example/Meow_diffA.class"), jar.getClasses());
+            assertFalse(jar.contains("com/example/Meow.class"));
+            assertEquals("com/example/Meow.class", jar.readString("com/example/Meow_diffA.class"));
+        }
+    }
+
+    @Test
+    void testNormalizedHash() {
+        // Same code, different debug info
+        byte[] fabric = createClass("Meow.java", 10, "meow");
+        byte[] forge = createClass("Meow-forge.java", 42, "meow");
+        byte[] different = createClass("Meow.java", 10, "woof");
+
+        assertFalse(Arrays.equals(fabric, forge));
+        assertArrayEquals(JAR.computeNormalizedHash(new ByteArrayInputStream(fabric)), JAR.computeNormalizedHash(new ByteArrayInputStream(forge)));
+        assertFalse(Arrays.equals(JAR.computeNormalizedHash(new ByteArrayInputStream(fabric)), JAR.computeNormalizedHash(new ByteArrayInputStream(different))));
+    }
+
+    @Test
+    void testClassReferences() {
+        byte[] meow = createClass("Meow.java", 10, "meow");
+        assertTrue(ClassReferences.refersTo(meow, "com/example/Meow"::equals)); // Its own name
+        assertTrue(ClassReferences.refersTo(meow, "java/lang/String"::equals)); // From the descriptor
+        assertFalse(ClassReferences.refersTo(meow, "com/example/Purr"::equals));
+    }
+
+    @Test
+    void testAsmRemapper() {
+        byte[] meow = createClass("Meow.java", 10, "com.example.Meow"); // Like Class.forName("com.example.Meow")
+        byte[] remapped = new AsmRemapper(Map.of("com/example/Meow", "com/example/Meow_diffA")).remap(meow);
+
+        var classNode = new ClassNode();
+        new ClassReader(remapped).accept(classNode, 0);
+        assertEquals("com/example/Meow_diffA", classNode.name);
+        assertEquals("java/lang/Object", classNode.superName);
+        var ldc = (LdcInsnNode) Arrays.stream(classNode.methods.getFirst().instructions.toArray()).filter(insn -> insn instanceof LdcInsnNode).findFirst().orElseThrow();
+        assertEquals("com.example.Meow_diffA", ldc.cst);
+    }
+
+    /**
+     * Writes a jar into the temp directory.
+     * @param name The file name of the jar
+     * @param entries The content of every entry by its path
+     */
+    private File writeJar(String name, Map<String, byte[]> entries) throws IOException {
+        File jarFile = tempDir.resolve(name).toFile();
+        try (var zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (var entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return jarFile;
+    }
+
+    private static void closeAll(List<RelocationConfig> files) {
+        for (var file : files) file.jar.close();
+    }
+
+    private static byte[] createClass(String sourceFile, int line, String constant) {
+        var classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, "com/example/Meow", null, "java/lang/Object", null);
+        classWriter.visitSource(sourceFile, null);
+        var method = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "meow", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        var start = new Label();
+        method.visitLabel(start);
+        method.visitLineNumber(line, start);
+        method.visitLdcInsn(constant);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    @Test
+    void testResourceTransformers() {
+        var mappings = Map.of(
+                "com/example/mixin/MeowMixin.class", "com/example/mixin/MeowMixin_diffA.class",
+                "com/example/Meow.class", "com/example/Meow_diffA.class",
+                "meow.mixins.json", "meow.mixins_diffA.json");
+        var context = new ResourceContext(mappings, new NameReplacer().compile());
+        var transformers = new ResourceTransformers(List.of());
+        assertNull(transformers.find("assets/meow/lang/en_us.json"));
+
+        var mixinConfig = """
+                {"package": "com.example.mixin", "mixins": ["MeowMixin", "PurrMixin"]}""";
+        assertEquals("""
+                {"package": "com.example.mixin", "mixins": ["MeowMixin_diffA", "PurrMixin"]}""",
+                new String(transformers.find("meow.mixins.json").transform("meow.mixins.json", mixinConfig.getBytes(StandardCharsets.UTF_8), context), StandardCharsets.UTF_8));
+
+        // Only whole values are relocated, not the description that happens to mention the class
+        var modJson = """
+                {"entrypoints": {"main": ["com.example.Meow::init"]}, "mixins": ["meow.mixins.json"], "description": "Uses com.example.Meow"}""";
+        assertEquals("""
+                {"entrypoints": {"main": ["com.example.Meow_diffA::init"]}, "mixins": ["meow.mixins_diffA.json"], "description": "Uses com.example.Meow"}""",
+                new String(transformers.find("fabric.mod.json").transform("fabric.mod.json", modJson.getBytes(StandardCharsets.UTF_8), context), StandardCharsets.UTF_8));
+
+        var accessWidener = "accessWidener v2 named\naccessible method com/example/Meow purr (Lcom/example/Meow;)V # com/example/Meow\n";
+        assertEquals("accessWidener v2 named\naccessible method com/example/Meow_diffA purr (Lcom/example/Meow_diffA;)V # com/example/Meow\n",
+                new String(transformers.find("meow.accesswidener").transform("meow.accesswidener", accessWidener.getBytes(StandardCharsets.UTF_8), context), StandardCharsets.UTF_8));
+        assertNull(transformers.find("plugin.yml").transform("plugin.yml", "main: com.example.Purr\n".getBytes(StandardCharsets.UTF_8), context));
+    }
+
+    @Test
+    void testMixinIndex() throws IOException {
+        File jarFile = tempDir.resolve("mixins.jar").toFile();
+        try (var zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (var entry : Map.of(
+                    "fabric.mod.json", "{\"mixins\": [\"meow.json\", {\"config\": \"purr.mixins.json\"}]}",
+                    "meow.json", "{\"package\": \"com.example.mixin\", \"refmap\": \"meow-refmap.json\"}", // Only found through fabric.mod.json
+                    "purr.mixins.json", "{\"package\": \"com.example.mixin.client\"}",
+                    "assets/example/lang/en_us.json", "{\"package\": \"not a mixin config\"}").entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+
+        try (var jar = new InMemoryJar(jarFile)) {
+            var mixins = MixinIndex.of(jar);
+            assertTrue(mixins.isConfig("meow.json"));
+            assertTrue(mixins.isRefmap("meow-refmap.json"));
+            assertFalse(mixins.isConfig("assets/example/lang/en_us.json"));
+            assertEquals("meow.json", mixins.owner("com/example/mixin/MeowMixin").path());
+            assertEquals("purr.mixins.json", mixins.owner("com/example/mixin/client/PurrMixin").path()); // The closest package wins
+            assertFalse(mixins.isMixin("com/example/Meow"));
+
+            mixins.rename(Map.of("meow-refmap.json", "meow-refmap_diffA.json"));
+            assertTrue(mixins.isRefmap("meow-refmap_diffA.json"));
+        }
+    }
+
+    @Test
+    void testMixinRelocation() throws IOException {
+        var purrRefmap = "{\"mappings\": {\"com/example/purr/PurrMixin\": {\"purr\": \"Lnet/minecraft/Cat;purr()V\"}}}".getBytes(StandardCharsets.UTF_8);
+        File jarFile = writeJar("mixin-relocation.jar", Map.of(
+                "meow.mixins.json", "{\"package\": \"com.example.mixin\", \"refmap\": \"meow-refmap.json\", \"mixins\": [\"MeowMixin\"]}".getBytes(StandardCharsets.UTF_8),
+                "meow-refmap.json", "{\"mappings\": {\"com/example/mixin/MeowMixin\": {\"meow\": \"Lcom/example/Meow;meow()V\"}}}".getBytes(StandardCharsets.UTF_8),
+                "purr.mixins.json", "{\"package\": \"com.example.purr\", \"refmap\": \"purr-refmap.json\", \"mixins\": [\"PurrMixin\"]}".getBytes(StandardCharsets.UTF_8),
+                "purr-refmap.json", purrRefmap));
+
+        var config = new RelocationConfig(new InMemoryJar(jarFile), "diffA");
+        try {
+            config.setMappings(new HashMap<>(Map.of(
+                    "com/example/mixin/MeowMixin.class", "com/example/mixin/MeowMixin_diffA.class",
+                    "com/example/Meow.class", "com/example/Meow_diffA.class")));
+            config.setMapped(true);
+            Relocator.relocateResources(List.of(config));
+
+            // Only the config whose mixin was relocated and its refmap are rewritten
+            assertTrue(config.jar.readString("meow.mixins.json").contains("\"MeowMixin_diffA\""));
+            var meowRefmap = config.jar.readString("meow-refmap.json");
+            assertTrue(meowRefmap.contains("\"com/example/mixin/MeowMixin_diffA\""));
+            assertTrue(meowRefmap.contains("\"Lcom/example/Meow_diffA;meow()V\""));
+            assertArrayEquals(purrRefmap, config.jar.read("purr-refmap.json"));
+        } finally {
+            closeAll(List.of(config));
+        }
+    }
+
     @Test
     void testMerge() throws IOException {
         // Copy merge jars into the temp directory
@@ -270,6 +866,120 @@ public class CoreTest {
         }
     }
 
+    @Test
+    void testRelocationCache() throws IOException {
+        File mergeJarACopy = tempDir.resolve("cache-a.jar").toFile();
+        File mergeJarBCopy = tempDir.resolve("cache-b.jar").toFile();
+        FileUtils.copyFile(mergeJarA, mergeJarACopy);
+        FileUtils.copyFile(mergeJarB, mergeJarBCopy);
+        Map<File, String> jarsAndLoaders = Map.of(mergeJarACopy, "diffA", mergeJarBCopy, "diffB");
+        Set<String> loaders = Set.of("diffA", "diffB");
+        var cache = new RelocationCache(tempDir.resolve("cache").toFile());
+
+        // Stored by the first merge and used by the second, which has to give the same jar
+        var key = RelocationCache.computeKey(jarsAndLoaders);
+        assertNull(cache.get(key, loaders));
+        File relocated = tempDir.resolve("cache-relocated.jar").toFile();
+        File cached = tempDir.resolve("cache-cached.jar").toFile();
+        Forgix.mergeLoaders(jarsAndLoaders, relocated, true, cache);
+        assertEquals(loaders, cache.get(key, loaders).keySet());
+        Forgix.mergeLoaders(jarsAndLoaders, cached, true, cache);
+        assertEquals(readEntries(relocated), readEntries(cached), "A merge from the cache should be the same as relocating again");
+
+        // Other options or other jars are a different merge
+        var options = new RelocationOptions();
+        options.setNormalizeBytecode(true);
+        assertNull(cache.get(RelocationCache.computeKey(jarsAndLoaders, options), loaders));
+        File extra = tempDir.resolve("extra.txt").toFile();
+        Files.writeString(extra.toPath(), "meow");
+        JAR.addFiles(mergeJarACopy, Map.of(extra, "extra.txt"));
+        assertNull(cache.get(RelocationCache.computeKey(jarsAndLoaders), loaders));
+
+        // An entry that's missing a loader is a miss instead of a broken merge
+        assertNull(cache.get(key, Set.of("diffA", "diffB", "diffC")));
+        tempDir.resolve("cache").resolve(key).resolve("diffB").toFile().deleteQuietly();
+        assertNull(cache.get(key, loaders));
+    }
+
+    private static Map<String, String> readEntries(File jarFile) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        try (var jar = new JarFile(jarFile)) {
+            for (var entry : Collections.list(jar.entries())) {
+                try (var is = jar.getInputStream(entry)) {
+                    entries.put(entry.getName(), HexFormat.of().formatHex(JAR.computeHash(is)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    void testForgixExecutor() {
+        // Every failure reaches the caller, the first one with the rest suppressed
+        try (var executor = ForgixExecutor.create(ForgixExecutor.Type.VIRTUAL, 4)) {
+            var barrier = new CyclicBarrier(4); // So all of them have started before any of them fails
+            var failure = assertThrows(IllegalStateException.class, () -> executor.forEach(List.of(1, 2, 3, 4), i -> {
+                barrier.await();
+                throw new IllegalStateException("Meow ${i}");
+            }));
+            assertEquals(3, failure.getSuppressed().length);
+        }
+
+        // Nested forEach with no permits left runs on the calling thread instead of waiting forever
+        try (var executor = ForgixExecutor.create(ForgixExecutor.Type.VIRTUAL, 1)) {
+            var count = new AtomicInteger();
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> executor.forEach(List.of(1, 2, 3), _ -> executor.forEach(List.of(1, 2, 3), _ -> count.incrementAndGet())));
+            assertEquals(9, count.get());
+        }
+
+        for (var type : ForgixExecutor.Type.values()) {
+            try (var executor = ForgixExecutor.create(type, 3)) {
+                var visits = new AtomicIntegerArray(1000);
+                executor.forEachIndex(visits.length(), visits::incrementAndGet);
+                for (int i = 0; i < visits.length(); i++) assertEquals(1, visits.get(i), "${type} should visit index ${i} exactly once");
+            }
+        }
+
+        // Work running on the pool's threads still knows which executor it belongs to
+        try (var executor = ForgixExecutor.create(ForgixExecutor.Type.PLATFORM, 2)) {
+            Set<ForgixExecutor> seen = ConcurrentHashMap.newKeySet();
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+            executor.run(() -> executor.forEach(List.of(1, 2, 3, 4), _ -> {
+                seen.add(ForgixExecutor.current());
+                threads.add(Thread.currentThread().getName());
+            }));
+            assertEquals(Set.of(executor), seen);
+            assertEquals(Set.of("forgix-platform"), threads);
+            assertEquals(ForgixExecutor.Type.COMMON, ForgixExecutor.current().getType(), "Outside of run it should be the common executor again");
+        }
+    }
+
+    @Test
+    void testForgixSession() {
+        var closedA = new AtomicBoolean();
+        var closedB = new AtomicBoolean();
+        var sessionA = new ForgixSession();
+        var sessionB = new ForgixSession();
+        try {
+            sessionA.track(() -> closedA.set(true));
+            sessionB.track(() -> closedB.set(true));
+            File tempDirA = sessionA.getTempDir("tiny");
+            File tempDirB = sessionB.getTempDir("tiny");
+            assertNotEquals(tempDirA, tempDirB);
+
+            sessionA.close();
+            assertTrue(closedA.get());
+            assertFalse(tempDirA.exists());
+            assertFalse(closedB.get(), "Closing a session shouldn't touch another one");
+            assertTrue(tempDirB.exists());
+            assertThrows(IllegalStateException.class, sessionA::getTempDir);
+        } finally {
+            sessionA.close();
+            sessionB.close();
+        }
+        assertTrue(closedB.get());
+    }
+
     @Test
     void testMergeCLI() throws IOException {
         // Copy merge jars into the temp directory